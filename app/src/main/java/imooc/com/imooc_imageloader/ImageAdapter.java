@@ -1,37 +1,51 @@
 package imooc.com.imooc_imageloader;
 
 import android.content.Context;
-import android.graphics.Color;
 import android.util.DisplayMetrics;
+import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
+import android.widget.AbsListView;
 import android.widget.BaseAdapter;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
+import imooc.com.imooc_imageloader.util.FolderImageSource;
 import imooc.com.imooc_imageloader.util.ImageLoader;
+import imooc.com.imooc_imageloader.util.PauseOnScrollListener;
+import imooc.com.imooc_imageloader.util.SelectionSet;
 
-public class ImageAdapter extends BaseAdapter {
+public class ImageAdapter extends BaseAdapter implements PauseOnScrollListener.Prefetcher, AbsListView.RecyclerListener {
 
-    private static Set<String> mSelectedImg = new HashSet<String>();
+    private static final int SELECTED_FILTER = 0x77000000;
 
-    private String mDirPath;
-    private List<String> mImgPaths;
+    /**
+     * 当前文件夹的选择状态，按照图片id保存
+     */
+    private SelectionSet mSelection;
+
+    /**
+     * 分页加载的图片路径，所在的页还没有加载时先显示占位图
+     */
+    private FolderImageSource mSource;
     private LayoutInflater mInflater;
+    /**
+     * 最近一次绑定的imageView，预加载时按照它的大小加载
+     */
+    private ImageView mSizeReference;
 
     private int mScreenWidth;
 
 
-    public ImageAdapter(Context context, List<String> mDatas, String dirPath) {
+    public ImageAdapter(Context context, FolderImageSource source, SelectionSet selection) {
 
-        this.mDirPath = dirPath;
-        this.mImgPaths = mDatas;
+        this.mSource = source;
+        this.mSelection = selection;
         mInflater = LayoutInflater.from(context);
 
         WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
@@ -42,12 +56,12 @@ public class ImageAdapter extends BaseAdapter {
 
     @Override
     public int getCount() {
-        return mImgPaths.size();
+        return mSource.getCount();
     }
 
     @Override
     public Object getItem(int position) {
-        return mImgPaths.get(position);
+        return mSource.get(position);
     }
 
     @Override
@@ -65,6 +79,27 @@ public class ImageAdapter extends BaseAdapter {
             viewHolder = new ViewHolder();
             viewHolder.mImg = (ImageView) convertView.findViewById(R.id.id_item_image);
             viewHolder.mSelect = (ImageButton) convertView.findViewById(R.id.id_item_select);
+            //每个item只创建一次点击监听，点击时按照当前绑定的id切换选择
+            viewHolder.mImg.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    if (viewHolder.mId > 0) {
+                        showSelection(viewHolder, mSelection.toggle(viewHolder.mId));
+                    }
+                }
+            });
+            //长按全屏查看大图
+            viewHolder.mImg.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    if (viewHolder.mPath == null) {
+                        return false;
+                    }
+                    new ImageViewerPopupWindow(v.getContext(), viewHolder.mPath)
+                            .showAtLocation(v.getRootView(), Gravity.CENTER, 0, 0);
+                    return true;
+                }
+            });
             convertView.setTag(viewHolder);
         } else {
             viewHolder = (ViewHolder) convertView.getTag();
@@ -72,41 +107,85 @@ public class ImageAdapter extends BaseAdapter {
 
         //重置狀態
         viewHolder.mImg.setImageResource(R.drawable.contacts);
-        viewHolder.mSelect.setImageResource(R.drawable.unselect);
-        viewHolder.mImg.setColorFilter(null);
         viewHolder.mImg.setMaxHeight(mScreenWidth / 3);
-        ImageLoader.getInstance(3, ImageLoader.Type.LIFO).loadImage(mDirPath + "/" + mImgPaths.get(position), viewHolder.mImg);
-
-        final String filePath = mDirPath + "/" + mImgPaths.get(position);
-        viewHolder.mImg.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-
-
-                //已经被选择
-                if (mSelectedImg.contains(filePath)) {
-                    mSelectedImg.remove(filePath);
-                    viewHolder.mImg.setColorFilter(null);
-                    viewHolder.mSelect.setImageResource(R.drawable.unselect);
-                } else {
-                    //未被选择
-                    mSelectedImg.add(filePath);
-                    viewHolder.mImg.setColorFilter(Color.parseColor("#77000000"));
-                    viewHolder.mSelect.setImageResource(R.drawable.select);
-                }
-//                    notifyDataSetChanged();
-            }
-        });
+        mSizeReference = viewHolder.mImg;
+
+        String filePath = mSource.get(position);
+        viewHolder.mPath = filePath;
+        viewHolder.mId = mSource.getId(position);
+        showSelection(viewHolder, mSelection.isSelected(viewHolder.mId));
+        if (filePath == null) {
+            //所在的页加载完成后会重新绑定，之前位置的图片不再需要
+            ImageLoader.getInstance(3, ImageLoader.Type.LIFO).cancel(viewHolder.mImg);
+            return convertView;
+        }
+        ImageLoader.getInstance(3, ImageLoader.Type.LIFO).loadImage(filePath, viewHolder.mImg);
+        return convertView;
+    }
 
-        if (mSelectedImg.contains(filePath)) {
-            viewHolder.mImg.setColorFilter(Color.parseColor("#77000000"));
+    private void showSelection(ViewHolder viewHolder, boolean selected) {
+        if (selected) {
+            viewHolder.mImg.setColorFilter(SELECTED_FILTER);
             viewHolder.mSelect.setImageResource(R.drawable.select);
+        } else {
+            viewHolder.mImg.setColorFilter(null);
+            viewHolder.mSelect.setImageResource(R.drawable.unselect);
         }
-        return convertView;
+    }
+
+    /**
+     * 预加载position位置的图片到缓存中
+     * @param position
+     */
+    @Override
+    public void prefetch(int position) {
+        if (mSizeReference == null) {
+            return;
+        }
+        String path = mSource.get(position);
+        if (path != null) {
+            ImageLoader.getInstance(3, ImageLoader.Type.LIFO).prefetch(path, mSizeReference);
+        }
+    }
+
+    /**
+     * item滑出屏幕，还没有加载完成的图片降低优先级，让位给屏幕上的图片；重新绑定时恢复
+     * @param view
+     */
+    @Override
+    public void onMovedToScrapHeap(View view) {
+        Object tag = view.getTag();
+        if (tag instanceof ViewHolder) {
+            ImageLoader.getInstance(3, ImageLoader.Type.LIFO)
+                    .setPriority(((ViewHolder) tag).mImg, ImageLoader.Priority.NEAR_VISIBLE);
+        }
+    }
+
+    /**
+     * 屏幕上已经绑定了图片的item的缓存key，下次启动时从磁盘缓存预加载
+     * @param view 使用该adapter的GridView
+     * @return
+     */
+    public List<String> getVisibleCacheKeys(AbsListView view) {
+        List<String> keys = new ArrayList<String>();
+        ImageLoader imageLoader = ImageLoader.getInstance(3, ImageLoader.Type.LIFO);
+        for (int i = 0; i < view.getChildCount(); i++) {
+            Object tag = view.getChildAt(i).getTag();
+            if (tag instanceof ViewHolder && ((ViewHolder) tag).mPath != null) {
+                ViewHolder viewHolder = (ViewHolder) tag;
+                keys.add(imageLoader.getCacheKey(viewHolder.mPath, viewHolder.mImg));
+            }
+        }
+        return keys;
     }
 
     private class ViewHolder {
         ImageView mImg;
         ImageButton mSelect;
+        /**
+         * 当前绑定的图片的id，所在的页还没有加载时为-1
+         */
+        long mId;
+        String mPath;
     }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package imooc.com.imooc_imageloader;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.PopupWindow;
+
+/**
+ * 全屏查看一张图片，按区域分块解码，不管原图多大都不会解码整张原图
+ * 单击或者返回键关闭
+ */
+public class ImageViewerPopupWindow extends PopupWindow {
+
+    private LargeImageView mImageView;
+
+    public ImageViewerPopupWindow(Context context, String path) {
+        mImageView = new LargeImageView(context);
+        mImageView.setBackgroundColor(Color.BLACK);
+        mImageView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                dismiss();
+            }
+        });
+
+        setContentView(mImageView);
+        setWidth(ViewGroup.LayoutParams.MATCH_PARENT);
+        setHeight(ViewGroup.LayoutParams.MATCH_PARENT);
+        setFocusable(true);
+        setTouchable(true);
+        //有背景时返回键才能关闭
+        setBackgroundDrawable(new BitmapDrawable());
+
+        mImageView.setImagePath(path);
+    }
+
+    @Override
+    public void dismiss() {
+        super.dismiss();
+        mImageView.close();
+    }
+}
@@ -0,0 +1,443 @@
+package imooc.com.imooc_imageloader;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.DisplayMetrics;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import imooc.com.imooc_imageloader.util.DecodeUtils;
+import imooc.com.imooc_imageloader.util.ThumbnailExtractor;
+
+/**
+ * 查看大图，不会解码整张原图：先解码一张不超过屏幕大小的底图，放大之后再按照当前的缩放比例
+ * 用BitmapRegionDecoder解码屏幕上可见的小块，解码好的小块保存在LruCache中，
+ * 占用的内存只和屏幕大小有关，和图片的分辨率无关
+ * 支持双指缩放、拖动和双击放大，按照EXIF方向显示，单击时回调OnClickListener
+ */
+public class LargeImageView extends View {
+
+    /**
+     * 小块解码后的边长
+     */
+    private static final int TILE_SIZE = 512;
+    private static final int TILE_CACHE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * 最多放大到原图的一个像素占屏幕上这么多个像素
+     */
+    private static final float MAX_SCALE = 2f;
+
+    /**
+     * 原图中的一块，bitmap是按照sampleSize缩小后的像素
+     */
+    private static final class Tile {
+        final Bitmap bitmap;
+        final Rect region;
+
+        Tile(Bitmap bitmap, Rect region) {
+            this.bitmap = bitmap;
+            this.region = region;
+        }
+    }
+
+    /**
+     * mDecoder 只在mExecutor中使用，关闭时也在mExecutor中释放
+     * mImageWidth、mImageHeight 原图没有旋转时的宽高
+     * mOrientation 从原图坐标到按照EXIF方向摆正后的坐标，mInverseOrientation是它的逆变换
+     * mDisplayWidth、mDisplayHeight 摆正后的宽高
+     */
+    private BitmapRegionDecoder mDecoder;
+    private int mImageWidth;
+    private int mImageHeight;
+    private Matrix mOrientation = new Matrix();
+    private Matrix mInverseOrientation = new Matrix();
+    private int mDisplayWidth;
+    private int mDisplayHeight;
+    private Bitmap.Config mConfig;
+
+    /**
+     * 整张图片缩小mBaseSampleSize倍的底图，小块还没有解码时显示它
+     */
+    private Bitmap mBase;
+    private int mBaseSampleSize;
+
+    /**
+     * 原图一个像素在屏幕上的大小，以及摆正后的图片左上角在view中的位置
+     */
+    private float mScale;
+    private float mMinScale;
+    private float mMaxScale;
+    private float mTranslateX;
+    private float mTranslateY;
+
+    /**
+     * mTiles 解码好的小块，key见getTileKey
+     * mWantedTiles 上一次绘制时可见但是还没有解码的小块，滑出屏幕的小块不再解码
+     * mPendingTiles 已经提交给mExecutor还没有完成的小块
+     * mGeneration 换图片或者关闭时加1，之前提交的任务直接丢弃结果
+     */
+    private LruCache<Long, Tile> mTiles = new LruCache<Long, Tile>(TILE_CACHE_SIZE) {
+        @Override
+        protected int sizeOf(Long key, Tile value) {
+            return value.bitmap.getByteCount();
+        }
+    };
+    private final Set<Long> mWantedTiles = new HashSet<Long>();
+    private final Set<Long> mPendingTiles = new HashSet<Long>();
+    private volatile int mGeneration;
+    private ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private Rect mImageRect = new Rect();
+    private RectF mVisibleRect = new RectF();
+    private ScaleGestureDetector mScaleDetector;
+    private GestureDetector mGestureDetector;
+
+    public LargeImageView(Context context) {
+        super(context);
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoom(mScale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                mTranslateX -= distanceX;
+                mTranslateY -= distanceY;
+                clampTranslation();
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                //缩小时放大到原图的一个像素对应屏幕上的一个像素（至少放大一倍），放大时恢复原样
+                if (mScale > mMinScale * 1.01f) {
+                    zoom(mMinScale, e.getX(), e.getY());
+                } else {
+                    zoom(Math.max(1f, mMinScale * 2), e.getX(), e.getY());
+                }
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapConfirmed(MotionEvent e) {
+                return performClick();
+            }
+        });
+    }
+
+    /**
+     * 在后台打开图片并解码底图，完成后显示
+     * @param path
+     */
+    public void setImagePath(final String path) {
+        final int generation = ++mGeneration;
+        final DisplayMetrics displayMetrics = getContext().getResources().getDisplayMetrics();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mDecoder != null) {
+                    mDecoder.recycle();
+                    mDecoder = null;
+                }
+                BitmapRegionDecoder decoder;
+                try {
+                    decoder = BitmapRegionDecoder.newInstance(path, false);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                if (decoder == null) {
+                    return;
+                }
+                mDecoder = decoder;
+                int orientation = ThumbnailExtractor.getOrientation(ThumbnailExtractor.readExif(path));
+                boolean transposed = ThumbnailExtractor.isTransposed(orientation);
+                final int width = decoder.getWidth();
+                final int height = decoder.getHeight();
+                String lower = path.toLowerCase();
+                final Bitmap.Config config = lower.endsWith(".jpg") || lower.endsWith(".jpeg")
+                        ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+                //底图不超过屏幕大小
+                final int sampleSize = DecodeUtils.calculatePowerOfTwoSampleSize(width, height,
+                        transposed ? displayMetrics.heightPixels : displayMetrics.widthPixels,
+                        transposed ? displayMetrics.widthPixels : displayMetrics.heightPixels, false);
+                final Bitmap base = decodeRegion(decoder, new Rect(0, 0, width, height), sampleSize, config);
+                if (base == null) {
+                    return;
+                }
+                final Matrix matrix = ThumbnailExtractor.getOrientationMatrix(orientation);
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            setImage(width, height, matrix, config, base, sampleSize);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void setImage(int width, int height, Matrix orientation, Bitmap.Config config, Bitmap base, int sampleSize) {
+        mImageWidth = width;
+        mImageHeight = height;
+        mConfig = config;
+        mBase = base;
+        mBaseSampleSize = sampleSize;
+        mTiles.evictAll();
+
+        //旋转之后平移回原点
+        mOrientation.reset();
+        if (orientation != null) {
+            mOrientation = orientation;
+        }
+        RectF bounds = new RectF(0, 0, width, height);
+        mOrientation.mapRect(bounds);
+        mOrientation.postTranslate(-bounds.left, -bounds.top);
+        mOrientation.invert(mInverseOrientation);
+        mDisplayWidth = Math.round(bounds.width());
+        mDisplayHeight = Math.round(bounds.height());
+
+        resetScale();
+        invalidate();
+    }
+
+    /**
+     * 不再使用时调用，释放解码器和所有小块
+     */
+    public void close() {
+        mGeneration++;
+        synchronized (mWantedTiles) {
+            mWantedTiles.clear();
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mDecoder != null) {
+                    mDecoder.recycle();
+                    mDecoder = null;
+                }
+            }
+        });
+        mExecutor.shutdown();
+        mTiles.evictAll();
+        mBase = null;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        resetScale();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        mScaleDetector.onTouchEvent(event);
+        mGestureDetector.onTouchEvent(event);
+        return true;
+    }
+
+    /**
+     * 整张图片放进view中并居中
+     */
+    private void resetScale() {
+        if (mBase == null || getWidth() <= 0 || getHeight() <= 0) {
+            return;
+        }
+        mMinScale = DecodeUtils.getTargetScale(mDisplayWidth, mDisplayHeight, getWidth(), getHeight(), false);
+        mMaxScale = Math.max(MAX_SCALE, mMinScale);
+        mScale = mMinScale;
+        clampTranslation();
+    }
+
+    /**
+     * 以(focusX, focusY)为中心缩放，该点下面的图片位置不变
+     */
+    private void zoom(float scale, float focusX, float focusY) {
+        if (mBase == null) {
+            return;
+        }
+        scale = Math.max(mMinScale, Math.min(scale, mMaxScale));
+        float factor = scale / mScale;
+        mTranslateX = focusX - (focusX - mTranslateX) * factor;
+        mTranslateY = focusY - (focusY - mTranslateY) * factor;
+        mScale = scale;
+        clampTranslation();
+        invalidate();
+    }
+
+    /**
+     * 图片比view小的方向居中，比view大的方向不能露出边缘
+     */
+    private void clampTranslation() {
+        float width = mDisplayWidth * mScale;
+        float height = mDisplayHeight * mScale;
+        if (width <= getWidth()) {
+            mTranslateX = (getWidth() - width) / 2;
+        } else {
+            mTranslateX = Math.max(getWidth() - width, Math.min(mTranslateX, 0));
+        }
+        if (height <= getHeight()) {
+            mTranslateY = (getHeight() - height) / 2;
+        } else {
+            mTranslateY = Math.max(getHeight() - height, Math.min(mTranslateY, 0));
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mBase == null) {
+            return;
+        }
+        canvas.save();
+        canvas.translate(mTranslateX, mTranslateY);
+        canvas.scale(mScale, mScale);
+        canvas.concat(mOrientation);
+        //之后都按照原图的坐标绘制
+        mImageRect.set(0, 0, mImageWidth, mImageHeight);
+        canvas.drawBitmap(mBase, null, mImageRect, mPaint);
+        int sampleSize = getTileSampleSize();
+        if (sampleSize < mBaseSampleSize) {
+            drawTiles(canvas, sampleSize);
+        } else {
+            synchronized (mWantedTiles) {
+                mWantedTiles.clear();
+            }
+        }
+        canvas.restore();
+    }
+
+    /**
+     * 当前缩放比例下需要的采样率，底图的采样率不比它大时不需要小块
+     */
+    private int getTileSampleSize() {
+        return mScale >= 1 ? 1 : Integer.highestOneBit(Math.max((int) (1 / mScale), 1));
+    }
+
+    /**
+     * 绘制可见的小块，没有解码的提交解码，解码完成后重新绘制
+     * @param canvas 已经变换到原图的坐标
+     * @param sampleSize
+     */
+    private void drawTiles(Canvas canvas, int sampleSize) {
+        //view的可见区域变换到原图的坐标
+        mVisibleRect.set(-mTranslateX / mScale, -mTranslateY / mScale,
+                (getWidth() - mTranslateX) / mScale, (getHeight() - mTranslateY) / mScale);
+        mInverseOrientation.mapRect(mVisibleRect);
+        int span = TILE_SIZE * sampleSize;
+        int left = Math.max((int) mVisibleRect.left / span, 0);
+        int top = Math.max((int) mVisibleRect.top / span, 0);
+        int right = Math.min((int) Math.ceil(mVisibleRect.right / span), (mImageWidth + span - 1) / span);
+        int bottom = Math.min((int) Math.ceil(mVisibleRect.bottom / span), (mImageHeight + span - 1) / span);
+
+        List<Long> missing = new ArrayList<Long>();
+        for (int row = top; row < bottom; row++) {
+            for (int column = left; column < right; column++) {
+                long key = getTileKey(sampleSize, row, column);
+                Tile tile = mTiles.get(key);
+                if (tile != null) {
+                    canvas.drawBitmap(tile.bitmap, null, tile.region, mPaint);
+                } else {
+                    missing.add(key);
+                }
+            }
+        }
+        synchronized (mWantedTiles) {
+            mWantedTiles.clear();
+            mWantedTiles.addAll(missing);
+        }
+        for (long key : missing) {
+            int row = (int) (key >>> 24) & 0xffffff;
+            int column = (int) key & 0xffffff;
+            Rect region = new Rect(column * span, row * span,
+                    Math.min((column + 1) * span, mImageWidth), Math.min((row + 1) * span, mImageHeight));
+            requestTile(key, region, sampleSize);
+        }
+    }
+
+    /**
+     * 采样率（2的幂）的指数、行、列组合成一个long
+     */
+    private static long getTileKey(int sampleSize, int row, int column) {
+        return ((long) Integer.numberOfTrailingZeros(sampleSize) << 48) | ((long) row << 24) | column;
+    }
+
+    private void requestTile(final long key, final Rect region, final int sampleSize) {
+        synchronized (mPendingTiles) {
+            if (!mPendingTiles.add(key)) {
+                return;
+            }
+        }
+        final int generation = mGeneration;
+        final Bitmap.Config config = mConfig;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (mWantedTiles) {
+                        //已经滑出屏幕或者换了缩放比例
+                        if (!mWantedTiles.contains(key)) {
+                            return;
+                        }
+                    }
+                    if (generation != mGeneration || mDecoder == null) {
+                        return;
+                    }
+                    Bitmap bitmap = decodeRegion(mDecoder, region, sampleSize, config);
+                    if (bitmap != null && generation == mGeneration) {
+                        mTiles.put(key, new Tile(bitmap, region));
+                        postInvalidate();
+                    }
+                } finally {
+                    synchronized (mPendingTiles) {
+                        mPendingTiles.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    private Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect region, int sampleSize, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        try {
+            return decoder.decodeRegion(region, options);
+        } catch (OutOfMemoryError e) {
+            //放弃已经解码的小块，下次绘制时重新解码可见的部分
+            mTiles.evictAll();
+            return null;
+        }
+    }
+}
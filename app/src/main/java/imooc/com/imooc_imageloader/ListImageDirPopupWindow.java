@@ -31,6 +31,15 @@ public class ListImageDirPopupWindow extends PopupWindow{
     private ListView mListView;
 
     private List<FolderBean> mDatas;
+    private ListDirAdapter mAdapter;
+
+    /**
+     * 文件夹封面只有几十张，用一个单独的小ImageLoader，不和图片网格争抢线程和缓存
+     */
+    private ImageLoader mImageLoader;
+    private Context mAppContext;
+    private static final int COVER_MEMORY_CACHE_SIZE = 4 * 1024 * 1024;
+    private static final long COVER_DISK_CACHE_SIZE = 5 * 1024 * 1024;
 
     public interface OnDirSelectedListener{
         void onSelected(FolderBean folderBean);
@@ -48,6 +57,14 @@ public class ListImageDirPopupWindow extends PopupWindow{
 
         mConvertView = LayoutInflater.from(context).inflate(R.layout.popup_main, null);
         mDatas = datas;
+        mImageLoader = new ImageLoader.Builder(context)
+                .setThreadCount(1)
+                .setMemoryCacheSize(COVER_MEMORY_CACHE_SIZE)
+                .setDiskCacheSize(COVER_DISK_CACHE_SIZE)
+                .setDiskCacheDirName("folder_covers")
+                .build();
+        mAppContext = context.getApplicationContext();
+        mAppContext.registerComponentCallbacks(mImageLoader);
 
         setContentView(mConvertView);
         setWidth(mWidth);
@@ -76,7 +93,23 @@ public class ListImageDirPopupWindow extends PopupWindow{
 
     private void initViews(Context context) {
         mListView = (ListView) mConvertView.findViewById(R.id.id_list_dir);
-        mListView.setAdapter(new ListDirAdapter(context, 0, mDatas));
+        mAdapter = new ListDirAdapter(context, 0, mDatas);
+        mListView.setAdapter(mAdapter);
+    }
+
+    /**
+     * 文件夹列表发生变化后刷新
+     */
+    public void notifyDataSetChanged() {
+        mAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * 不再使用时释放ImageLoader的线程
+     */
+    public void release() {
+        mAppContext.unregisterComponentCallbacks(mImageLoader);
+        mImageLoader.shutdown();
     }
 
     private void initEvent() {
@@ -135,7 +168,7 @@ public class ListImageDirPopupWindow extends PopupWindow{
             //重置
             holder.mImg.setImageResource(R.drawable.contacts);
 
-            ImageLoader.getInstance(0, ImageLoader.Type.LIFO).loadImage(bean.getFirstImgPath(),holder.mImg);
+            mImageLoader.loadImage(bean.getFirstImgPath(),holder.mImg);
             holder.mDirCount.setText(bean.getCount()+"");
             holder.mDirName.setText(bean.getName());
             return convertView;
@@ -3,15 +3,9 @@ package imooc.com.imooc_imageloader;
 import android.Manifest;
 import android.app.Activity;
 import android.app.ProgressDialog;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Environment;
-import android.os.Handler;
-import android.os.Message;
-import android.provider.MediaStore;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
@@ -33,21 +27,31 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
-import java.io.FilenameFilter;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import imooc.com.imooc_imageloader.bean.FolderBean;
+import imooc.com.imooc_imageloader.util.FolderImageSource;
+import imooc.com.imooc_imageloader.util.FolderIndexer;
 import imooc.com.imooc_imageloader.util.ImageLoader;
+import imooc.com.imooc_imageloader.util.MediaChangeObserver;
+import imooc.com.imooc_imageloader.util.PauseOnScrollListener;
+import imooc.com.imooc_imageloader.util.SelectionSet;
+import imooc.com.imooc_imageloader.util.WarmStartSnapshot;
 
 public class MainActivity extends AppCompatActivity {
 
     private GridView mGridView;
-    private List<String> mImgs;
+    private FolderImageSource mImgSource;
     private ImageAdapter mImgAdapter;
+    private FolderImageSource.SortOrder mSortOrder = FolderImageSource.SortOrder.DATE;
+
+    /**
+     * 文件夹路径 -> 该文件夹的选择状态，切换文件夹后保留
+     */
+    private Map<String, SelectionSet> mSelections = new HashMap<String, SelectionSet>();
 
     private RelativeLayout mBottomLy;
     private TextView mDirName;
@@ -60,22 +64,88 @@ public class MainActivity extends AppCompatActivity {
 
     private ProgressDialog mProgressDialog;
 
-    private static final int DATA_LOADED = 0x110;
+    /**
+     * 滑动停止后预加载的行数
+     */
+    private static final int PREFETCH_ROWS = 3;
 
     private ListImageDirPopupWindow mDirPopupWindow;
 
-    private Handler mHandler = new Handler(){
+    private FolderIndexer mFolderIndexer;
+    private MediaChangeObserver mChangeObserver;
+    /**
+     * onDestroy之后为true，之前提交的回调仍然可能执行，这时不能再创建FolderImageSource或者监听文件夹
+     * 旋转屏幕销毁的activity的isFinishing()为false，不能用它判断
+     */
+    private volatile boolean mDestroyed;
+
+    /**
+     * 图片变化的回调，在后台线程中调用，一批变化只回调一次
+     */
+    private MediaChangeObserver.OnChangeListener mChangeListener = new MediaChangeObserver.OnChangeListener() {
         @Override
-        public void handleMessage(Message msg) {
+        public void onChange(final MediaChangeObserver.Changes changes) {
+            if (mDestroyed){
+                return;
+            }
+            //先让变化了的图片的缓存失效，界面刷新时才会重新加载
+            ImageLoader imageLoader = ImageLoader.getInstance(3, ImageLoader.Type.LIFO);
+            for (String path : changes.getPaths()){
+                imageLoader.invalidate(path);
+            }
+            mFolderIndexer.applyChanges(changes);
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mDestroyed && mImgSource != null){
+                        mImgSource.applyChanges(changes);
+                    }
+                }
+            });
+        }
+    };
 
-            if (msg.what == DATA_LOADED){
-                mProgressDialog.dismiss();
-                //綁定數據到view中
-                data2View();
+    /**
+     * 文件夾索引的回調，掃描過程中會多次回調
+     */
+    private FolderIndexer.OnFoldersLoadedListener mFoldersLoadedListener = new FolderIndexer.OnFoldersLoadedListener() {
+        @Override
+        public void onFoldersLoaded(List<FolderBean> folders, boolean finished) {
+            if (mDestroyed){
+                return;
+            }
+            mFolderBeans.clear();
+            mFolderBeans.addAll(folders);
+
+            if (mCurrentDir == null){
+                //第一次拿到數據，選擇圖片最多的文件夾
+                for (FolderBean folderBean : mFolderBeans){
+                    if (folderBean.getCount() > mMaxCount){
+                        mMaxCount = folderBean.getCount();
+                        mCurrentDir = new File(folderBean.getDir());
+                    }
+                }
+                if (mCurrentDir != null){
+                    dismissProgressDialog();
+                    //綁定數據到view中
+                    data2View();
+                }
+            }
 
-                initDirPopupWindow();
+            if (mDirPopupWindow == null){
+                if (!mFolderBeans.isEmpty()){
+                    initDirPopupWindow();
+                }
+            }else{
+                mDirPopupWindow.notifyDataSetChanged();
             }
 
+            if (finished){
+                dismissProgressDialog();
+                if (mCurrentDir == null){
+                    data2View();
+                }
+            }
         }
     };
 
@@ -93,19 +163,7 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onSelected(FolderBean folderBean) {
                 mCurrentDir = new File(folderBean.getDir());
-                mImgs = Arrays.asList(mCurrentDir.list(new FilenameFilter() {
-                    @Override
-                    public boolean accept(File dir, String filename) {
-                        if (filename.endsWith(".jpg") || filename.endsWith(".jpeg") || filename.endsWith(".png"))
-                            return  true;
-                        return false;
-                    }
-                }));
-
-                mImgAdapter = new ImageAdapter(MainActivity.this, mImgs, mCurrentDir.getAbsolutePath());
-                mGridView.setAdapter(mImgAdapter);
-
-                mDirCount.setText(mImgs.size()+"");
+                showFolder(folderBean.getCount());
                 mDirName.setText(folderBean.getName());
                 mDirPopupWindow.dismiss();
             }
@@ -136,13 +194,80 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        mImgs = Arrays.asList(mCurrentDir.list());
-        mImgAdapter = new ImageAdapter(this, mImgs, mCurrentDir.getAbsolutePath());
+        showFolder(mMaxCount);
+        mDirName.setText(mCurrentDir.getName());
+
+    }
+
+    /**
+     * 显示mCurrentDir中的图片，路径在后台分页加载
+     * @param estimatedCount 索引中的图片数，加载到实际数量之前先按它显示
+     */
+    private void showFolder(int estimatedCount) {
+        if (mImgSource != null){
+            mImgSource.close();
+        }
+        mImgSource = new FolderImageSource(this, mCurrentDir.getAbsolutePath(), estimatedCount, mSortOrder,
+                new FolderImageSource.OnChangedListener() {
+                    @Override
+                    public void onChanged() {
+                        mDirCount.setText(mImgSource.getCount() + "");
+                        mImgAdapter.notifyDataSetChanged();
+                    }
+                });
+        if (mChangeObserver != null){
+            mChangeObserver.watchDir(mCurrentDir.getAbsolutePath());
+        }
+        mImgAdapter = new ImageAdapter(this, mImgSource, getSelection());
         mGridView.setAdapter(mImgAdapter);
+        mGridView.setRecyclerListener(mImgAdapter);
 
-        mDirCount.setText(mMaxCount + "");
-        mDirName.setText(mCurrentDir.getName());
+        mDirCount.setText(estimatedCount + "");
+    }
+
+    /**
+     * 当前文件夹的选择状态
+     * @return
+     */
+    private SelectionSet getSelection() {
+        String dir = mCurrentDir.getAbsolutePath();
+        SelectionSet selection = mSelections.get(dir);
+        if (selection == null){
+            selection = new SelectionSet();
+            mSelections.put(dir, selection);
+        }
+        return selection;
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        return true;
+    }
 
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+        if (id == R.id.action_sort_date || id == R.id.action_sort_name){
+            mSortOrder = id == R.id.action_sort_date ? FolderImageSource.SortOrder.DATE : FolderImageSource.SortOrder.NAME;
+            if (mImgSource != null){
+                mImgSource.setSortOrder(mSortOrder);
+            }
+            return true;
+        }
+        if (id == R.id.action_select_all && mImgSource != null){
+            //已经全部选择时取消全部选择
+            SelectionSet selection = getSelection();
+            int count = mImgSource.getCount();
+            if (count > 0 && selection.getSelectedCount(count) == count){
+                selection.clear();
+            }else{
+                selection.selectAll();
+            }
+            mImgAdapter.notifyDataSetChanged();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
     }
 
     @Override
@@ -153,9 +278,14 @@ public class MainActivity extends AppCompatActivity {
         initView();
         initEvent();
         checkPermission();
+        //内存紧张时让ImageLoader释放缓存
+        getApplicationContext().registerComponentCallbacks(ImageLoader.getInstance(3, ImageLoader.Type.LIFO));
     }
 
     private void initEvent() {
+        //fling时暂停加载图片，停止后预加载
+        mGridView.setOnScrollListener(new PauseOnScrollListener(ImageLoader.getInstance(3, ImageLoader.Type.LIFO), PREFETCH_ROWS));
+
         mBottomLy.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -169,7 +299,7 @@ public class MainActivity extends AppCompatActivity {
 
 
     /**
-     * 利用ContentProvider掃描手機中的所有圖片
+     * 利用ContentProvider掃描手機中的所有圖片，掃描在後台進行，結果分批回調
      */
     private void initDatas() {
         if (!Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
@@ -177,68 +307,57 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        mProgressDialog = ProgressDialog.show(this, null, "正在加載...");
+        //扫描完成之后的变化按批增量应用
+        mFolderIndexer = new FolderIndexer(this, mFoldersLoadedListener);
+        mChangeObserver = new MediaChangeObserver(this, mChangeListener);
+        mChangeObserver.start();
 
+        //上次的文件夹直接显示，不需要等待扫描
+        if (!restoreSnapshot()){
+            mProgressDialog = ProgressDialog.show(this, null, "正在加載...");
+        }
 
-        new Thread() {
-            @Override
-            public void run() {
-
-                //開始掃描圖片
-                Uri mImgUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-                ContentResolver cr = MainActivity.this.getContentResolver();
-
-                Cursor cursor = cr.query(mImgUri, null, MediaStore.Images.Media.MIME_TYPE + " = ? or " +
-                                MediaStore.Images.Media.MIME_TYPE + " = ?", new String[]{"image/jpeg", "image/png"},
-                        MediaStore.Images.Media.DATE_MODIFIED);
-
-                Set<String > mDirPaths = new HashSet<String>();
-
-                while (cursor.moveToNext()){
-                    String path = cursor.getString(cursor.getColumnIndex(MediaStore.Images.Media.DATA));
-
-                    File parentFile = new File(path).getParentFile();
-                    if (parentFile == null)
-                        continue;
+        mFolderIndexer.start();
+    }
 
-                    String dirPath = parentFile.getAbsolutePath();
-                    FolderBean folderBean = null;
+    /**
+     * 显示上次离开时的文件夹和位置，同时从磁盘缓存预加载上次屏幕上的图片，和文件夹扫描并行进行
+     * @return 没有保存的状态或者文件夹已经不存在时返回false
+     */
+    private boolean restoreSnapshot() {
+        WarmStartSnapshot snapshot = WarmStartSnapshot.read(this);
+        if (snapshot == null || !new File(snapshot.getDir()).isDirectory()){
+            return false;
+        }
+        //先提交预加载，grid中的imageView请求同一张图片时直接等待它的结果
+        ImageLoader imageLoader = ImageLoader.getInstance(3, ImageLoader.Type.LIFO);
+        for (String key : snapshot.getVisibleKeys()){
+            imageLoader.preloadFromDiskCache(key, this);
+        }
 
-                    if (mDirPaths.contains(dirPath)){
-                        continue;
-                    }else{
-                        mDirPaths.add(dirPath);
-                        folderBean = new FolderBean();
-                        folderBean.setDir(dirPath);
-                        folderBean.setFirstImgPath(path);
-                    }
+        mCurrentDir = new File(snapshot.getDir());
+        mSortOrder = snapshot.getSortOrder();
+        showFolder(snapshot.getCount());
+        mDirName.setText(mCurrentDir.getName());
+        mGridView.setSelection(snapshot.getFirstVisiblePosition());
+        return true;
+    }
 
-                    if (parentFile.list() == null){
-                        continue;
-                    }
+    /**
+     * 保存当前的文件夹、位置和屏幕上图片的缓存key
+     */
+    private void saveSnapshot() {
+        if (mImgSource == null){
+            return;
+        }
+        new WarmStartSnapshot(mImgSource.getDir(), mImgSource.getCount(), mSortOrder,
+                mGridView.getFirstVisiblePosition(), mImgAdapter.getVisibleCacheKeys(mGridView)).write(this);
+    }
 
-                    int picSize = parentFile.list(new FilenameFilter() {
-                        @Override
-                        public boolean accept(File dir, String filename) {
-                            if (filename.endsWith(".jpg") || filename.endsWith(".jpeg") || filename.endsWith(".png"))
-                                return  true;
-                            return false;
-                        }
-                    }).length;
-                    folderBean.setCount(picSize);
-
-                    mFolderBeans.add(folderBean);
-
-                    if (picSize > mMaxCount){
-                        mMaxCount = picSize;
-                        mCurrentDir = parentFile;
-                    }
-                }
-                cursor.close();
-                //通知Handler掃描圖片完成
-                mHandler.sendEmptyMessage(DATA_LOADED);
-            }
-        }.start();
+    private void dismissProgressDialog() {
+        if (mProgressDialog != null){
+            mProgressDialog.dismiss();
+        }
     }
 
     private void initView() {
@@ -250,16 +369,40 @@ public class MainActivity extends AppCompatActivity {
 
 
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        saveSnapshot();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        mProgressDialog.dismiss();
+        mDestroyed = true;
+        if (mProgressDialog != null){
+            mProgressDialog.dismiss();
+        }
+        if (mDirPopupWindow != null){
+            mDirPopupWindow.release();
+        }
+        if (mImgSource != null){
+            mImgSource.close();
+        }
+        if (mChangeObserver != null){
+            mChangeObserver.stop();
+        }
+        if (mFolderIndexer != null){
+            mFolderIndexer.stop();
+        }
+        getApplicationContext().unregisterComponentCallbacks(ImageLoader.getInstance(3, ImageLoader.Type.LIFO));
     }
 
     private void checkPermission() {
         if(ContextCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED){
             //申请READ_EXTERNAL_STORAGE权限
             ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.READ_EXTERNAL_STORAGE}, 0);
+        }else{
+            initDatas();
         }
     }
 
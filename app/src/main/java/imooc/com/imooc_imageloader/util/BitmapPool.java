@@ -0,0 +1,161 @@
+package imooc.com.imooc_imageloader.util;
+
+import android.graphics.Bitmap;
+
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+/**
+ * Bitmap复用池：按照Bitmap占用的字节数分桶保存可复用的Bitmap，
+ * 解码时通过BitmapFactory.Options.inBitmap复用，减少内存分配和GC
+ */
+public class BitmapPool {
+
+    /**
+     * 复用的Bitmap最多比需要的大这么多倍，太大的Bitmap复用会浪费内存
+     */
+    private static final int MAX_SIZE_MULTIPLE = 2;
+
+    /**
+     * 字节数 -> 该大小的Bitmap
+     */
+    private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+
+    /**
+     * 放入池中的先后顺序，超过容量时从最早放入的开始丢弃
+     */
+    private final LinkedList<Bitmap> mOrder = new LinkedList<Bitmap>();
+
+    private int mMaxSize;
+    private int mSize;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+
+    public BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 放入一个不再使用的Bitmap
+     * @param bitmap
+     * @return 是否被池接收
+     */
+    public synchronized boolean put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return false;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (size > mMaxSize) {
+            return false;
+        }
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new LinkedList<Bitmap>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.add(bitmap);
+        mOrder.add(bitmap);
+        mSize += size;
+        mPutCount++;
+
+        trimToSize(mMaxSize);
+        return true;
+    }
+
+    /**
+     * 取出一个能够容纳width*height像素的Bitmap
+     * @param width
+     * @param height
+     * @param config
+     * @return 没有合适的Bitmap时返回null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int needed = width * height * getBytesPerPixel(config);
+        Integer key = mBuckets.ceilingKey(needed);
+        if (key == null || key > needed * MAX_SIZE_MULTIPLE) {
+            mMissCount++;
+            return null;
+        }
+        Bitmap bitmap = mBuckets.get(key).getLast();
+        removeFromBucket(key, bitmap);
+        mOrder.remove(bitmap);
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * 丢弃池中的Bitmap直到总大小不超过maxSize
+     * @param maxSize
+     */
+    public synchronized void trimToSize(int maxSize) {
+        while (mSize > maxSize && !mOrder.isEmpty()) {
+            Bitmap eldest = mOrder.removeFirst();
+            removeFromBucket(eldest.getAllocationByteCount(), eldest);
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * 修改池的容量，变小时立即丢弃多出的Bitmap
+     * @param maxSize
+     */
+    public synchronized void resize(int maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private void removeFromBucket(int size, Bitmap bitmap) {
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        bucket.remove(bitmap);
+        if (bucket.isEmpty()) {
+            mBuckets.remove(size);
+        }
+        mSize -= size;
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    public synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getPutCount() {
+        return mPutCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[size=" + mSize + "/" + mMaxSize + ", hits=" + mHitCount + ", misses=" + mMissCount
+                + ", puts=" + mPutCount + ", evictions=" + mEvictionCount + "]";
+    }
+}
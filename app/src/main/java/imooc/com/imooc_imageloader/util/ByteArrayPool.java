@@ -0,0 +1,109 @@
+package imooc.com.imooc_imageloader.util;
+
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+/**
+ * byte[]复用池：读取阶段把整个文件读进byte[]交给解码阶段，解码完成后放回池中，
+ * 避免每张图片都分配几M的数组
+ * 池中空闲的数组和正在使用的一样占用ImageLoader的读取预算，丢弃数组的方法都返回丢弃的字节数，由调用者归还预算
+ */
+public class ByteArrayPool {
+
+    /**
+     * 复用的数组最多比需要的大这么多倍
+     */
+    private static final int MAX_SIZE_MULTIPLE = 2;
+
+    /**
+     * 长度 -> 该长度的数组
+     */
+    private final TreeMap<Integer, LinkedList<byte[]>> mBuckets = new TreeMap<Integer, LinkedList<byte[]>>();
+
+    /**
+     * 放入池中的先后顺序，超过容量时从最早放入的开始丢弃
+     */
+    private final LinkedList<byte[]> mOrder = new LinkedList<byte[]>();
+
+    private int mMaxSize;
+    private int mSize;
+
+    public ByteArrayPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 取出一个长度不小于length的数组
+     * @param length
+     * @return 没有合适的时返回null，由调用者占用预算后新分配
+     */
+    public synchronized byte[] get(int length) {
+        Integer key = mBuckets.ceilingKey(length);
+        if (key == null || key > (long) length * MAX_SIZE_MULTIPLE) {
+            return null;
+        }
+        LinkedList<byte[]> bucket = mBuckets.get(key);
+        byte[] buffer = bucket.removeLast();
+        if (bucket.isEmpty()) {
+            mBuckets.remove(key);
+        }
+        mOrder.remove(buffer);
+        mSize -= buffer.length;
+        return buffer;
+    }
+
+    /**
+     * 放回一个不再使用的数组
+     * @param buffer
+     * @return 因为超过容量被丢弃的字节数，可能包括buffer本身
+     */
+    public synchronized int put(byte[] buffer) {
+        if (buffer == null) {
+            return 0;
+        }
+        if (buffer.length > mMaxSize) {
+            return buffer.length;
+        }
+        LinkedList<byte[]> bucket = mBuckets.get(buffer.length);
+        if (bucket == null) {
+            bucket = new LinkedList<byte[]>();
+            mBuckets.put(buffer.length, bucket);
+        }
+        bucket.add(buffer);
+        mOrder.add(buffer);
+        mSize += buffer.length;
+
+        return trimToSize(mMaxSize);
+    }
+
+    /**
+     * 从最早放入的开始丢弃，直到池中的字节数不超过maxSize
+     * @param maxSize
+     * @return 丢弃的字节数
+     */
+    public synchronized int trimToSize(int maxSize) {
+        int dropped = 0;
+        while (mSize > maxSize && !mOrder.isEmpty()) {
+            byte[] eldest = mOrder.removeFirst();
+            LinkedList<byte[]> bucket = mBuckets.get(eldest.length);
+            bucket.remove(eldest);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(eldest.length);
+            }
+            mSize -= eldest.length;
+            dropped += eldest.length;
+        }
+        return dropped;
+    }
+
+    /**
+     * @return 丢弃的字节数
+     */
+    public synchronized int clear() {
+        return trimToSize(0);
+    }
+
+    public synchronized int getSize() {
+        return mSize;
+    }
+}
@@ -0,0 +1,137 @@
+package imooc.com.imooc_imageloader.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * 解码相关的纯计算，不依赖Android，可以在普通JVM上测试和做基准测试
+ */
+public class DecodeUtils {
+
+    private DecodeUtils() {
+    }
+
+    /**
+     * 根据需求的宽和高以及图片实际的宽和高计算SampleSize，结果不一定是2的幂，
+     * 解码时会被向下取整，解码出的图片可能比需求大好几倍；ImageLoader已经改用calculatePowerOfTwoSampleSize，
+     * 保留这个方法用于基准测试对比
+     * @param width 图片实际的宽
+     * @param height 图片实际的高
+     * @param reqWidth
+     * @param reqHeight
+     * @return
+     */
+    public static int caculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+
+        if (width > reqWidth || height > reqHeight){
+            int widthRadio = Math.round(width*1.0f/reqWidth);
+            int heightRadio = Math.round(height*1.0f/reqHeight);
+
+            inSampleSize = Math.max(widthRadio, heightRadio);
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * 缩放到需求大小的比例
+     * @param width 图片的宽
+     * @param height 图片的高
+     * @param reqWidth
+     * @param reqHeight
+     * @param crop 为true时（centerCrop、fitXY）缩放后覆盖需求的宽高，为false时（fitCenter、centerInside）缩放后放进需求的宽高
+     * @return
+     */
+    public static float getTargetScale(int width, int height, int reqWidth, int reqHeight, boolean crop) {
+        float scaleX = (float) reqWidth / width;
+        float scaleY = (float) reqHeight / height;
+        return crop ? Math.max(scaleX, scaleY) : Math.min(scaleX, scaleY);
+    }
+
+    /**
+     * 计算2的幂的SampleSize：解码器只支持2的幂，其他值会被向下取整，
+     * 这里直接取缩放后仍然不小于显示大小的最大的2的幂，剩下的比例在解码时精确缩放
+     * @param width 图片实际的宽
+     * @param height 图片实际的高
+     * @param reqWidth
+     * @param reqHeight
+     * @param crop 见getTargetScale
+     * @return
+     */
+    public static int calculatePowerOfTwoSampleSize(int width, int height, int reqWidth, int reqHeight, boolean crop) {
+        float scale = getTargetScale(width, height, reqWidth, reqHeight, crop);
+        if (scale >= 1) {
+            return 1;
+        }
+        return Math.max(Integer.highestOneBit((int) (1 / scale)), 1);
+    }
+
+    private static final long PNG_SIGNATURE = 0x89504e470d0a1a0aL;
+    private static final int PNG_IHDR = 0x49484452;
+    private static final int PNG_TRNS = 0x74524e53;
+    private static final int PNG_IDAT = 0x49444154;
+    private static final int PNG_COLOR_GRAY_ALPHA = 4;
+    private static final int PNG_COLOR_RGBA = 6;
+
+    /**
+     * 读取PNG的文件头判断是否有透明度：颜色类型带alpha通道，或者在图像数据之前有tRNS块
+     * 只读取图像数据之前的几个块，不解码
+     * @param path
+     * @return 不是PNG或者读取失败时返回true，保守地保留alpha
+     */
+    public static boolean pngHasAlpha(String path) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 256));
+            if (in.readLong() != PNG_SIGNATURE) {
+                return true;
+            }
+            while (true) {
+                int length = in.readInt();
+                int type = in.readInt();
+                if (length < 0) {
+                    //块长度损坏，无法判断
+                    return true;
+                } else if (type == PNG_IHDR) {
+                    //宽、高各4字节，位深1字节，然后是颜色类型
+                    in.skipBytes(9);
+                    int colorType = in.readUnsignedByte();
+                    if (colorType == PNG_COLOR_GRAY_ALPHA || colorType == PNG_COLOR_RGBA) {
+                        return true;
+                    }
+                    //剩余的数据和CRC
+                    skipFully(in, length - 10 + 4);
+                } else if (type == PNG_TRNS) {
+                    return true;
+                } else if (type == PNG_IDAT) {
+                    //图像数据之前没有tRNS，不透明
+                    return false;
+                } else {
+                    skipFully(in, length + 4);
+                }
+            }
+        } catch (IOException e) {
+            return true;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static void skipFully(DataInputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                throw new IOException("unexpected end of file");
+            }
+            count -= skipped;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package imooc.com.imooc_imageloader.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 磁盘缓存（二级缓存），按LRU淘汰
+ * 通过journal日志记录每一次写入、访问和删除，进程被杀死后重新打开时回放日志恢复缓存内容和访问顺序
+ * 进程在写journal的过程中被杀死时，最后一行可能只写了一半，回放时丢弃这一行，保留之前的内容
+ */
+public class DiskLruCache {
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String MAGIC = "imooc.DiskLruCache";
+    private static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    /**
+     * journal中冗余的行数超过该值时重建journal
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File mDirectory;
+    private final File mJournalFile;
+    private final long mMaxSize;
+
+    /**
+     * key -> 文件大小，accessOrder为true，迭代顺序即LRU顺序
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(0, 0.75f, true);
+    private long mSize;
+    private int mRedundantOpCount;
+    private Writer mJournalWriter;
+
+    private DiskLruCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mJournalFile = new File(directory, JOURNAL_FILE);
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 打开缓存目录，若存在journal则回放，否则新建
+     * @param directory
+     * @param maxSize 缓存的最大字节数
+     * @return
+     * @throws IOException
+     */
+    public static DiskLruCache open(File directory, long maxSize) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("can not create " + directory);
+        }
+        DiskLruCache cache = new DiskLruCache(directory, maxSize);
+        if (cache.mJournalFile.exists()) {
+            try {
+                boolean torn = cache.readJournal();
+                cache.deleteUntrackedFiles();
+                if (torn) {
+                    //不完整的最后一行后面不能再追加，重写一份
+                    cache.rebuildJournal();
+                } else {
+                    cache.mJournalWriter = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(cache.mJournalFile, true), "US-ASCII"));
+                }
+                return cache;
+            } catch (IOException e) {
+                //journal中间的内容损坏，丢弃整个缓存
+                e.printStackTrace();
+                cache.deleteContents();
+            }
+        }
+        //没有journal时目录中的文件都不在记录中
+        cache.deleteUntrackedFiles();
+        cache.rebuildJournal();
+        return cache;
+    }
+
+    /**
+     * 生成缓存的key，只包含[a-f0-9]，可以直接作为文件名
+     * @param parts
+     * @return
+     */
+    public static String hashKey(String parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(parts.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(parts.hashCode());
+        } catch (IOException e) {
+            return String.valueOf(parts.hashCode());
+        }
+    }
+
+    /**
+     * 回放journal，只回放以换行结束的完整的行
+     * @return 最后是否有一行不完整（写到一半时进程被杀死）
+     * @throws IOException 文件头不对或者完整的行无法解析
+     */
+    private boolean readJournal() throws IOException {
+        String journal = readFully(mJournalFile);
+        int end = journal.lastIndexOf('\n') + 1;
+        boolean torn = end < journal.length();
+        String[] lines = journal.substring(0, end).split("\n");
+        String magic = lines.length > 0 ? lines[0] : null;
+        String version = lines.length > 1 ? lines[1] : null;
+        if (!MAGIC.equals(magic) || !VERSION.equals(version)) {
+            throw new IOException("unexpected journal header: " + magic + ", " + version);
+        }
+        for (int i = 2; i < lines.length; i++) {
+            readJournalLine(lines[i]);
+        }
+        mRedundantOpCount = lines.length - 2 - mEntries.size();
+
+        //去掉journal中有记录但文件已经不存在的条目
+        Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (!getFile(entry.getKey()).exists()) {
+                mSize -= entry.getValue();
+                it.remove();
+            }
+        }
+        return torn;
+    }
+
+    private static String readFully(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "US-ASCII");
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, count);
+            }
+            return sb.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void readJournalLine(String line) throws IOException {
+        String[] parts = line.split(" ");
+        if (parts.length < 2) {
+            throw new IOException("unexpected journal line: " + line);
+        }
+        String key = parts[1];
+        if (CLEAN.equals(parts[0]) && parts.length == 3) {
+            long size;
+            try {
+                size = Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                throw new IOException("unexpected journal line: " + line);
+            }
+            Long old = mEntries.put(key, size);
+            if (old != null) {
+                mSize -= old;
+            }
+            mSize += size;
+        } else if (READ.equals(parts[0])) {
+            mEntries.get(key);
+        } else if (REMOVE.equals(parts[0])) {
+            Long old = mEntries.remove(key);
+            if (old != null) {
+                mSize -= old;
+            }
+        } else {
+            throw new IOException("unexpected journal line: " + line);
+        }
+    }
+
+    /**
+     * 按照当前的内容重新写一份精简的journal
+     * @throws IOException
+     */
+    private synchronized void rebuildJournal() throws IOException {
+        if (mJournalWriter != null) {
+            mJournalWriter.close();
+        }
+        File tmp = new File(mDirectory, JOURNAL_FILE_TMP);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "US-ASCII"));
+        try {
+            writer.write(MAGIC + "\n");
+            writer.write(VERSION + "\n");
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(mJournalFile)) {
+            throw new IOException("can not rename " + tmp);
+        }
+        mRedundantOpCount = 0;
+        mJournalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mJournalFile, true), "US-ASCII"));
+    }
+
+    /**
+     * 删除目录中journal没有记录的文件，比如写到一半的临时文件、记录已经删除但文件还在的缓存，它们不计入容量，不会被淘汰
+     */
+    private void deleteUntrackedFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.equals(JOURNAL_FILE) && !name.equals(JOURNAL_FILE_TMP) && !mEntries.containsKey(name)) {
+                file.delete();
+            }
+        }
+    }
+
+    private void deleteContents() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    private File getFile(String key) {
+        return new File(mDirectory, key);
+    }
+
+    /**
+     * 根据key获取缓存文件，不存在时返回null
+     * @param key
+     * @return
+     */
+    public synchronized File get(String key) {
+        if (mEntries.get(key) == null) {
+            return null;
+        }
+        File file = getFile(key);
+        if (!file.exists()) {
+            mSize -= mEntries.remove(key);
+            return null;
+        }
+        appendJournal(READ + " " + key);
+        return file;
+    }
+
+    /**
+     * 写入一条缓存，先写到临时文件再重命名，避免写到一半的文件被读到
+     * @param key
+     * @param data
+     * @return
+     */
+    public synchronized boolean put(String key, byte[] data) {
+        File tmp = new File(mDirectory, key + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(getFile(key))) {
+            tmp.delete();
+            return false;
+        }
+
+        Long old = mEntries.put(key, (long) data.length);
+        if (old != null) {
+            mSize -= old;
+        }
+        mSize += data.length;
+        appendJournal(CLEAN + " " + key + " " + data.length);
+
+        trimToSize();
+        return true;
+    }
+
+    /**
+     * 删除一条缓存
+     * @param key
+     */
+    public synchronized void remove(String key) {
+        Long old = mEntries.remove(key);
+        if (old != null) {
+            mSize -= old;
+            getFile(key).delete();
+            appendJournal(REMOVE + " " + key);
+        }
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * 超过最大容量时从最久未使用的条目开始删除
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            mSize -= eldest.getValue();
+            getFile(eldest.getKey()).delete();
+            it.remove();
+            appendJournal(REMOVE + " " + eldest.getKey());
+        }
+    }
+
+    private void appendJournal(String line) {
+        if (mJournalWriter == null) {
+            return;
+        }
+        try {
+            mJournalWriter.write(line + "\n");
+            mJournalWriter.flush();
+            mRedundantOpCount++;
+            if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                    && mRedundantOpCount >= mEntries.size()) {
+                rebuildJournal();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package imooc.com.imooc_imageloader.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 一个文件夹中图片的分页数据源：在后台线程中按排序查询MediaStore，每次只查询一页，
+ * 滑动到哪里加载到哪里，内存中只保留最近用到的几页，不需要一次列出整个文件夹
+ * MediaStore中没有该文件夹的图片（比如还没有被扫描）时，在后台线程中列出并排序文件夹
+ * 每张图片还有一个大于0的id，用于SelectionSet：MediaStore中的_ID，直接列出文件夹时为列出的顺序加1，都不随排序改变
+ * 文件夹内容变化时（见applyChanges）已经加载的页先继续显示，用到时再重新查询，不会整个闪成占位图
+ * 除了后台查询，所有方法都在UI线程调用，结果也在UI线程回调
+ */
+public class FolderImageSource {
+
+    public enum SortOrder
+    {
+        /**
+         * 修改时间从新到旧
+         */
+        DATE,
+        /**
+         * 文件名，不区分大小写
+         */
+        NAME
+    }
+
+    public interface OnChangedListener {
+        /**
+         * 图片总数确定了或者有新的一页加载完成，在UI线程中回调
+         */
+        void onChanged();
+    }
+
+    /**
+     * 一页的路径和id，version为查询开始时的mVersion
+     */
+    private static final class Page {
+        final String[] paths;
+        final long[] ids;
+        final int version;
+
+        Page(String[] paths, long[] ids, int version) {
+            this.paths = paths;
+            this.ids = ids;
+            this.version = version;
+        }
+    }
+
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * 内存中最多保留的页数
+     */
+    private static final int MAX_PAGES = 8;
+
+    /**
+     * 离当前页末尾不到这么多张时预先加载下一页
+     */
+    private static final int PRELOAD_DISTANCE = PAGE_SIZE / 4;
+
+    static final String SELECTION = "(" + MediaStore.Images.Media.MIME_TYPE + " = ? or "
+            + MediaStore.Images.Media.MIME_TYPE + " = ?) AND " + MediaStore.Images.Media.DATA + " LIKE ? ESCAPE '\\' AND "
+            + MediaStore.Images.Media.DATA + " NOT LIKE ? ESCAPE '\\'";
+
+    private Context mContext;
+    private String mDir;
+    private SortOrder mSortOrder;
+    private OnChangedListener mListener;
+    private Handler mUIHandler = new Handler(Looper.getMainLooper());
+    private ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * 页号 -> 该页
+     * mLoadingPages 正在查询的页
+     * mFiles 没有MediaStore数据时列出的全部文件，为null时使用MediaStore
+     * mGeneration 排序改变或者关闭时加1，之前的查询结果直接丢弃
+     * mVersion 文件夹内容变化时加1，之前查询的页仍然可以显示，但是用到时要重新查询
+     */
+    private LruCache<Integer, Page> mPages = new LruCache<Integer, Page>(MAX_PAGES);
+    private Set<Integer> mLoadingPages = new HashSet<Integer>();
+    private Page mFiles;
+    /**
+     * 最近一次列出、排序或者合并变化之后的文件列表，只在mExecutor中使用，连续的变化依次在它上面合并
+     */
+    private Page mListedFiles;
+    private int mCount;
+    private int mGeneration;
+    private int mVersion;
+    /**
+     * close之后为true，不再提交任何查询
+     */
+    private boolean mClosed;
+
+    /**
+     * @param context
+     * @param dir 文件夹的完整路径
+     * @param estimatedCount 索引中该文件夹的图片数，查询到实际数量之前作为总数
+     * @param sortOrder
+     * @param listener
+     */
+    public FolderImageSource(Context context, String dir, int estimatedCount, SortOrder sortOrder, OnChangedListener listener) {
+        mContext = context.getApplicationContext();
+        mDir = dir;
+        mCount = estimatedCount;
+        mSortOrder = sortOrder;
+        mListener = listener;
+        loadCount();
+    }
+
+    public String getDir() {
+        return mDir;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public SortOrder getSortOrder() {
+        return mSortOrder;
+    }
+
+    /**
+     * 获取position位置图片的完整路径
+     * @param position
+     * @return 所在的页还没有加载时返回null，加载完成后回调onChanged
+     */
+    public String get(int position) {
+        Page page = getPage(position);
+        int offset = mFiles != null ? position : position % PAGE_SIZE;
+        return page != null && offset < page.paths.length ? page.paths[offset] : null;
+    }
+
+    /**
+     * 获取position位置图片的id
+     * @param position
+     * @return 所在的页还没有加载时返回-1
+     */
+    public long getId(int position) {
+        Page page = getPage(position);
+        int offset = mFiles != null ? position : position % PAGE_SIZE;
+        return page != null && offset < page.ids.length ? page.ids[offset] : -1;
+    }
+
+    /**
+     * 获取position所在的页，没有加载时开始加载
+     * @param position
+     * @return
+     */
+    private Page getPage(int position) {
+        if (position < 0 || position >= mCount) {
+            return null;
+        }
+        if (mFiles != null) {
+            return mFiles;
+        }
+        int index = position / PAGE_SIZE;
+        int offset = position % PAGE_SIZE;
+        if (offset >= PAGE_SIZE - PRELOAD_DISTANCE && (index + 1) * PAGE_SIZE < mCount) {
+            loadPage(index + 1);
+        }
+        Page page = mPages.get(index);
+        if (page == null || page.version != mVersion) {
+            loadPage(index);
+        }
+        return page;
+    }
+
+    /**
+     * 改变排序，重新从第一页开始加载
+     * @param sortOrder
+     */
+    public void setSortOrder(SortOrder sortOrder) {
+        if (mClosed || sortOrder == mSortOrder) {
+            return;
+        }
+        mSortOrder = sortOrder;
+        mGeneration++;
+        mPages.evictAll();
+        mLoadingPages.clear();
+        if (mFiles != null) {
+            final Page files = mFiles;
+            mFiles = null;
+            final int generation = mGeneration;
+            final SortOrder order = mSortOrder;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sortFiles(files, order);
+                    mListedFiles = files;
+                    postFiles(generation, files);
+                }
+            });
+        } else {
+            //可能还在列出文件夹，按新的排序重新开始
+            loadCount();
+        }
+        mListener.onChanged();
+    }
+
+    /**
+     * 应用图片的变化，没有涉及这个文件夹时不做处理：
+     * 使用MediaStore时重新查询数量，已经加载的页继续显示，用到时再重新查询；
+     * 直接列出文件夹时在之前的列表上增删变化的文件并重新排序，不需要再列出整个文件夹
+     * @param changes
+     */
+    public void applyChanges(MediaChangeObserver.Changes changes) {
+        if (mClosed) {
+            return;
+        }
+        boolean affected = changes.getDirs().contains(mDir);
+        if (mFiles == null) {
+            //MediaStore中删除的图片不知道原来在哪个文件夹
+            if (affected || changes.isUnresolved()) {
+                mVersion++;
+                loadCount();
+            }
+            return;
+        }
+        if (!affected) {
+            return;
+        }
+        final Set<String> paths = new HashSet<String>(changes.getPaths());
+        final int generation = mGeneration;
+        final SortOrder order = mSortOrder;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mListedFiles == null) {
+                    return;
+                }
+                Page files = mergeFiles(mListedFiles, paths);
+                sortFiles(files, order);
+                mListedFiles = files;
+                postFiles(generation, files);
+            }
+        });
+    }
+
+    /**
+     * 不再使用时调用，之后不会再回调，其他方法也不再查询
+     */
+    public void close() {
+        mClosed = true;
+        mGeneration++;
+        mExecutor.shutdownNow();
+    }
+
+    private void loadCount() {
+        if (mClosed) {
+            return;
+        }
+        final int generation = mGeneration;
+        final SortOrder order = mSortOrder;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int count = queryCount();
+                if (count > 0) {
+                    mUIHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == mGeneration) {
+                                mCount = count;
+                                mListener.onChanged();
+                            }
+                        }
+                    });
+                    return;
+                }
+                //MediaStore中没有，直接列出文件夹
+                Page files = listFiles();
+                sortFiles(files, order);
+                mListedFiles = files;
+                postFiles(generation, files);
+            }
+        });
+    }
+
+    private void loadPage(final int page) {
+        Page loaded = mPages.get(page);
+        if (mClosed || mLoadingPages.contains(page) || (loaded != null && loaded.version == mVersion)) {
+            return;
+        }
+        mLoadingPages.add(page);
+        final int generation = mGeneration;
+        final int version = mVersion;
+        final SortOrder order = mSortOrder;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Page result = queryPage(page, order, version);
+                mUIHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mLoadingPages.remove(page);
+                        if (result != null) {
+                            mPages.put(page, result);
+                            mListener.onChanged();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void postFiles(final int generation, final Page files) {
+        mUIHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mGeneration) {
+                    mFiles = files;
+                    mCount = files.paths.length;
+                    mListener.onChanged();
+                }
+            }
+        });
+    }
+
+    private String[] getSelectionArgs() {
+        return getSelectionArgs(mDir);
+    }
+
+    /**
+     * SELECTION的参数，FolderIndexer更新单个文件夹时也使用
+     * @param dir 文件夹的完整路径
+     * @return
+     */
+    static String[] getSelectionArgs(String dir) {
+        //只要该文件夹下的文件，不包括子文件夹
+        String escaped = dir.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return new String[]{"image/jpeg", "image/png", escaped + "/%", escaped + "/%/%"};
+    }
+
+    private int queryCount() {
+        ContentResolver cr = mContext.getContentResolver();
+        Cursor cursor = null;
+        try {
+            cursor = cr.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, new String[]{"COUNT(*)"},
+                    SELECTION, getSelectionArgs(), null);
+            if (cursor == null || !cursor.moveToNext()) {
+                return 0;
+            }
+            return cursor.getInt(0);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return 0;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * 查询一页，MediaStore把sortOrder直接拼在ORDER BY之后，借此加上LIMIT和OFFSET
+     * @param page
+     * @param order
+     * @param version
+     * @return 查询失败时返回null
+     */
+    private Page queryPage(int page, SortOrder order, int version) {
+        String sortOrder = order == SortOrder.DATE
+                ? MediaStore.Images.Media.DATE_MODIFIED + " DESC, " + MediaStore.Images.Media._ID + " DESC"
+                : MediaStore.Images.Media.DISPLAY_NAME + " COLLATE NOCASE ASC, " + MediaStore.Images.Media._ID + " ASC";
+        sortOrder += " LIMIT " + PAGE_SIZE + " OFFSET " + page * PAGE_SIZE;
+        ContentResolver cr = mContext.getContentResolver();
+        Cursor cursor = null;
+        try {
+            cursor = cr.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    new String[]{MediaStore.Images.Media.DATA, MediaStore.Images.Media._ID},
+                    SELECTION, getSelectionArgs(), sortOrder);
+            if (cursor == null) {
+                return null;
+            }
+            String[] paths = new String[cursor.getCount()];
+            long[] ids = new long[paths.length];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                paths[i] = cursor.getString(0);
+                ids[i] = cursor.getLong(1);
+                i++;
+            }
+            return new Page(paths, ids, version);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private Page listFiles() {
+        File dir = new File(mDir);
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return isImage(filename);
+            }
+        });
+        if (names == null) {
+            return new Page(new String[0], new long[0], 0);
+        }
+        long[] ids = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = mDir + "/" + names[i];
+            ids[i] = i + 1;
+        }
+        return new Page(names, ids, 0);
+    }
+
+    /**
+     * 在列表上合并变化的文件：已经不存在的删除，该文件夹中新出现的图片加在最后，id接着最大的id分配
+     * @param files
+     * @param paths 变化的文件的完整路径
+     * @return 新的列表，还没有排序
+     */
+    private Page mergeFiles(Page files, Set<String> paths) {
+        List<String> mergedPaths = new ArrayList<String>(files.paths.length + paths.size());
+        List<Long> mergedIds = new ArrayList<Long>(files.paths.length + paths.size());
+        Set<String> listed = new HashSet<String>();
+        long maxId = 0;
+        for (int i = 0; i < files.paths.length; i++) {
+            String path = files.paths[i];
+            maxId = Math.max(maxId, files.ids[i]);
+            if (paths.contains(path) && !new File(path).isFile()) {
+                continue;
+            }
+            mergedPaths.add(path);
+            mergedIds.add(files.ids[i]);
+            listed.add(path);
+        }
+        for (String path : paths) {
+            File file = new File(path);
+            if (!listed.contains(path) && mDir.equals(file.getParent()) && isImage(file.getName()) && file.isFile()) {
+                mergedPaths.add(path);
+                mergedIds.add(++maxId);
+            }
+        }
+        long[] ids = new long[mergedIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mergedIds.get(i);
+        }
+        return new Page(mergedPaths.toArray(new String[mergedPaths.size()]), ids, 0);
+    }
+
+    private static boolean isImage(String filename) {
+        String lower = filename.toLowerCase();
+        return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png");
+    }
+
+    /**
+     * 排序，路径和id一起移动
+     * @param files
+     * @param order
+     */
+    private static void sortFiles(final Page files, SortOrder order) {
+        final String[] paths = files.paths;
+        int count = paths.length;
+        Integer[] indexes = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = i;
+        }
+        if (order == SortOrder.NAME) {
+            Arrays.sort(indexes, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    return String.CASE_INSENSITIVE_ORDER.compare(paths[lhs], paths[rhs]);
+                }
+            });
+        } else {
+            //排序过程中每个文件只取一次修改时间
+            final long[] modified = new long[count];
+            for (int i = 0; i < count; i++) {
+                modified[i] = new File(paths[i]).lastModified();
+            }
+            Arrays.sort(indexes, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    long l = modified[lhs];
+                    long r = modified[rhs];
+                    return l < r ? 1 : (l == r ? 0 : -1);
+                }
+            });
+        }
+        String[] sortedPaths = new String[count];
+        long[] sortedIds = new long[count];
+        for (int i = 0; i < count; i++) {
+            sortedPaths[i] = paths[indexes[i]];
+            sortedIds[i] = files.ids[indexes[i]];
+        }
+        System.arraycopy(sortedPaths, 0, paths, 0, count);
+        System.arraycopy(sortedIds, 0, files.ids, 0, count);
+    }
+}
@@ -0,0 +1,465 @@
+package imooc.com.imooc_imageloader.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import imooc.com.imooc_imageloader.bean.FolderBean;
+
+/**
+ * 图片文件夹索引：在后台线程中按文件夹分组查询MediaStore，边查询边把结果分批回调给UI线程
+ * 索引会保存到本地，下次启动时先回调保存的索引，再只查询上次之后新增（DATE_MODIFIED更大）的图片
+ * 扫描完成后通过applyChanges按文件夹应用MediaChangeObserver通知的变化，不需要重新扫描
+ */
+public class FolderIndexer {
+
+    public interface OnFoldersLoadedListener {
+        /**
+         * 在UI线程中回调，每次都是当前完整的文件夹列表
+         * @param folders
+         * @param finished 是否已经扫描完成
+         */
+        void onFoldersLoaded(List<FolderBean> folders, boolean finished);
+    }
+
+    private static final String INDEX_FILE = "folder_index";
+    private static final String INDEX_VERSION = "v1";
+
+    /**
+     * 全量扫描时每找到这么多个文件夹回调一次
+     */
+    private static final int BATCH_SIZE = 16;
+
+    private static final String COLUMN_COUNT = "img_count";
+    private static final String COLUMN_MAX_MODIFIED = "max_modified";
+
+    private static final String MIME_SELECTION = "(" + MediaStore.Images.Media.MIME_TYPE + " = ? or "
+            + MediaStore.Images.Media.MIME_TYPE + " = ?)";
+    private static final String[] MIME_ARGS = new String[]{"image/jpeg", "image/png"};
+
+    private Context mContext;
+    private OnFoldersLoadedListener mListener;
+    private Handler mUIHandler = new Handler(Looper.getMainLooper());
+    /**
+     * 扫描和应用变化都在这个线程中依次进行
+     */
+    private ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * 文件夹路径 -> 文件夹，只在后台线程中修改；FolderBean一旦回调出去就不再修改
+     */
+    private Map<String, FolderBean> mFolders = new LinkedHashMap<String, FolderBean>();
+
+    /**
+     * 已索引图片中最大的DATE_MODIFIED
+     */
+    private long mGeneration;
+
+    public FolderIndexer(Context context, OnFoldersLoadedListener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+    }
+
+    /**
+     * 在后台线程开始扫描
+     */
+    public void start() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                index();
+            }
+        });
+    }
+
+    /**
+     * 在后台线程中应用一批变化，有变化时保存索引并回调完整的文件夹列表
+     * 受影响的文件夹各自重新统计；有不知道在哪个文件夹的变化（删除、移动）或者总数对不上时，
+     * 重新分组统计一次并和当前索引比较
+     * @param changes
+     */
+    public void applyChanges(final MediaChangeObserver.Changes changes) {
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean changed = false;
+                for (String dir : changes.getDirs()) {
+                    changed |= refreshFolder(dir);
+                }
+                if (changes.isUnresolved() || !isConsistent()) {
+                    changed |= reconcile();
+                }
+                if (changed) {
+                    writeIndex();
+                    postFolders(true);
+                }
+            }
+        });
+    }
+
+    /**
+     * 不再接受新的变化，已经开始的扫描会完成并保存索引
+     */
+    public void stop() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * 重新统计一个文件夹
+     * @param dir
+     * @return 索引是否改变
+     */
+    private boolean refreshFolder(String dir) {
+        ContentResolver cr = mContext.getContentResolver();
+        Cursor cursor = null;
+        FolderBean folderBean = null;
+        try {
+            cursor = cr.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, new String[]{
+                            MediaStore.Images.Media.DATA,
+                            "COUNT(*) AS " + COLUMN_COUNT,
+                            "MAX(" + MediaStore.Images.Media.DATE_MODIFIED + ") AS " + COLUMN_MAX_MODIFIED},
+                    FolderImageSource.SELECTION, FolderImageSource.getSelectionArgs(dir), null);
+            if (cursor == null) {
+                return false;
+            }
+            //没有图片时DATA为null，readFolder返回null
+            if (cursor.moveToNext()) {
+                folderBean = readFolder(cursor);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        FolderBean old = mFolders.get(dir);
+        if (folderBean == null) {
+            return mFolders.remove(dir) != null;
+        }
+        if (isSame(old, folderBean)) {
+            return false;
+        }
+        mFolders.put(dir, folderBean);
+        return true;
+    }
+
+    /**
+     * @return 索引中的图片数是否和MediaStore中的总数一致
+     */
+    private boolean isConsistent() {
+        long[] total = queryTotal();
+        if (total == null) {
+            return true;
+        }
+        int indexedCount = 0;
+        for (FolderBean folderBean : mFolders.values()) {
+            indexedCount += folderBean.getCount();
+        }
+        mGeneration = Math.max(mGeneration, total[1]);
+        return indexedCount == total[0];
+    }
+
+    /**
+     * 重新分组统计，用结果替换索引
+     * @return 索引是否改变
+     */
+    private boolean reconcile() {
+        Cursor cursor = queryFolders(null);
+        if (cursor == null) {
+            return false;
+        }
+        Map<String, FolderBean> folders = new LinkedHashMap<String, FolderBean>();
+        try {
+            while (cursor.moveToNext()) {
+                FolderBean folderBean = readFolder(cursor);
+                if (folderBean != null) {
+                    folders.put(folderBean.getDir(), folderBean);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        boolean changed = folders.size() != mFolders.size();
+        for (FolderBean folderBean : folders.values()) {
+            FolderBean old = mFolders.get(folderBean.getDir());
+            if (isSame(old, folderBean)) {
+                //没有变化的保留原来的对象
+                folders.put(folderBean.getDir(), old);
+            } else {
+                changed = true;
+            }
+        }
+        mFolders = folders;
+        return changed;
+    }
+
+    private static boolean isSame(FolderBean old, FolderBean folderBean) {
+        return old != null && old.getCount() == folderBean.getCount()
+                && old.getFirstImgPath().equals(folderBean.getFirstImgPath());
+    }
+
+    private void index() {
+        boolean cached = readIndex();
+        if (cached) {
+            //先把保存的索引显示出来
+            postFolders(false);
+            if (!updateIndex()) {
+                fullScan();
+            }
+        } else {
+            fullScan();
+        }
+        writeIndex();
+        postFolders(true);
+    }
+
+    /**
+     * 按文件夹分组查询全部图片
+     */
+    private void fullScan() {
+        mFolders.clear();
+        mGeneration = 0;
+        Cursor cursor = queryFolders(null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            int found = 0;
+            while (cursor.moveToNext()) {
+                FolderBean folderBean = readFolder(cursor);
+                if (folderBean == null) {
+                    continue;
+                }
+                mFolders.put(folderBean.getDir(), folderBean);
+                if (++found % BATCH_SIZE == 0) {
+                    postFolders(false);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 在保存的索引基础上只合并新增的图片
+     * @return 有图片被删除、无法增量更新时返回false
+     */
+    private boolean updateIndex() {
+        long[] total = queryTotal();
+        if (total == null) {
+            return false;
+        }
+        int indexedCount = 0;
+        for (FolderBean folderBean : mFolders.values()) {
+            indexedCount += folderBean.getCount();
+        }
+
+        Cursor cursor = queryFolders(mGeneration);
+        if (cursor == null) {
+            return false;
+        }
+        List<FolderBean> changed = new ArrayList<FolderBean>();
+        int newCount = 0;
+        try {
+            while (cursor.moveToNext()) {
+                FolderBean folderBean = readFolder(cursor);
+                if (folderBean == null) {
+                    continue;
+                }
+                newCount += folderBean.getCount();
+                FolderBean old = mFolders.get(folderBean.getDir());
+                if (old != null) {
+                    folderBean.setCount(old.getCount() + folderBean.getCount());
+                }
+                changed.add(folderBean);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        //总数对不上说明有图片被删除或移动了
+        if (indexedCount + newCount != total[0]) {
+            return false;
+        }
+        for (FolderBean folderBean : changed) {
+            mFolders.put(folderBean.getDir(), folderBean);
+        }
+        mGeneration = Math.max(mGeneration, total[1]);
+        return true;
+    }
+
+    /**
+     * 按文件夹分组查询，每个文件夹一行：最新的一张图片、图片数、最大的修改时间
+     * @param since 只查询DATE_MODIFIED大于该值的图片，为null时查询全部
+     * @return
+     */
+    private Cursor queryFolders(Long since) {
+        Uri mImgUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+        ContentResolver cr = mContext.getContentResolver();
+
+        String[] projection = new String[]{
+                MediaStore.Images.Media.DATA,
+                "COUNT(*) AS " + COLUMN_COUNT,
+                "MAX(" + MediaStore.Images.Media.DATE_MODIFIED + ") AS " + COLUMN_MAX_MODIFIED};
+        String selection = MIME_SELECTION;
+        String[] args = MIME_ARGS;
+        if (since != null) {
+            selection += " AND " + MediaStore.Images.Media.DATE_MODIFIED + " > ?";
+            args = new String[]{MIME_ARGS[0], MIME_ARGS[1], String.valueOf(since)};
+        }
+        //MediaStore会把selection包在WHERE(...)中，借此加上GROUP BY
+        selection = "(" + selection + ") GROUP BY (" + MediaStore.Images.Media.BUCKET_ID;
+        try {
+            return cr.query(mImgUri, projection, selection, args, null);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 查询图片总数和最大的修改时间
+     * @return
+     */
+    private long[] queryTotal() {
+        Uri mImgUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+        ContentResolver cr = mContext.getContentResolver();
+        Cursor cursor = null;
+        try {
+            cursor = cr.query(mImgUri, new String[]{"COUNT(*) AS " + COLUMN_COUNT,
+                    "MAX(" + MediaStore.Images.Media.DATE_MODIFIED + ") AS " + COLUMN_MAX_MODIFIED},
+                    MIME_SELECTION, MIME_ARGS, null);
+            if (cursor == null || !cursor.moveToNext()) {
+                return null;
+            }
+            return new long[]{cursor.getLong(0), cursor.getLong(1)};
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * 从分组查询的当前行读取一个文件夹
+     * @param cursor
+     * @return
+     */
+    private FolderBean readFolder(Cursor cursor) {
+        String path = cursor.getString(0);
+        if (path == null) {
+            return null;
+        }
+        File parentFile = new File(path).getParentFile();
+        if (parentFile == null) {
+            return null;
+        }
+        FolderBean folderBean = new FolderBean();
+        folderBean.setDir(parentFile.getAbsolutePath());
+        folderBean.setFirstImgPath(path);
+        folderBean.setCount(cursor.getInt(1));
+        mGeneration = Math.max(mGeneration, cursor.getLong(2));
+        return folderBean;
+    }
+
+    private void postFolders(final boolean finished) {
+        final List<FolderBean> folders = new ArrayList<FolderBean>(mFolders.values());
+        mUIHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onFoldersLoaded(folders, finished);
+            }
+        });
+    }
+
+    /**
+     * 读取保存的索引
+     * @return 没有可用的索引时返回false
+     */
+    private boolean readIndex() {
+        File file = new File(mContext.getFilesDir(), INDEX_FILE);
+        if (!file.exists()) {
+            return false;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String[] header = reader.readLine().split(" ");
+                if (!INDEX_VERSION.equals(header[0])) {
+                    return false;
+                }
+                mGeneration = Long.parseLong(header[1]);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t");
+                    FolderBean folderBean = new FolderBean();
+                    folderBean.setDir(parts[0]);
+                    folderBean.setFirstImgPath(parts[1]);
+                    folderBean.setCount(Integer.parseInt(parts[2]));
+                    mFolders.put(folderBean.getDir(), folderBean);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            mFolders.clear();
+            return false;
+        } catch (RuntimeException e) {
+            //索引文件损坏
+            e.printStackTrace();
+            mFolders.clear();
+            return false;
+        }
+        return !mFolders.isEmpty();
+    }
+
+    private void writeIndex() {
+        File file = new File(mContext.getFilesDir(), INDEX_FILE);
+        File tmp = new File(mContext.getFilesDir(), INDEX_FILE + ".tmp");
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+            try {
+                writer.write(INDEX_VERSION + " " + mGeneration + "\n");
+                for (FolderBean folderBean : mFolders.values()) {
+                    writer.write(folderBean.getDir() + "\t" + folderBean.getFirstImgPath() + "\t" + folderBean.getCount() + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,152 +1,350 @@
 package imooc.com.imooc_imageloader.util;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.media.ExifInterface;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
+import android.util.Log;
 import android.util.LruCache;
+import android.view.Choreographer;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
-import java.util.LinkedList;
-import java.util.concurrent.Executor;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * 图片加载类,单例模式
+ * 图片加载类，可以通过getInstance使用默认的单例，
+ * 也可以通过Builder创建多个独立配置的实例（比如文件夹列表用一个小的，图片网格用一个大的）
  * Created by suncj1 on 2015/9/21.
  */
-public class ImageLoader {
+public class ImageLoader implements ComponentCallbacks2 {
+    private static final String TAG = "ImageLoader";
     private static ImageLoader mInstance; //使用单例模式,实例只有一个
 
     /**
-     * 图片缓存的核心对象
+     * 图片缓存的核心对象，key为path加上需求大小的分档，同一张图片可以缓存多个尺寸
+     * mCachedVariants 记录每个path在缓存中已有的尺寸
      */
     private LruCache<String, Bitmap> mLruCache;
+    private final Map<String, List<ImageSize>> mCachedVariants = new HashMap<String, List<ImageSize>>();
 
     /**
-     * 线程池
+     * 需求的宽高向上取整到该值的倍数，相近的大小共用一份缓存
      */
-    private ExecutorService mThreadPool;
-    private static final int DEFAULT_THREAD_COUNT = 1;
+    private static final int SIZE_BUCKET = 64;
+
+    /**
+     * 缓存中更大尺寸的图片在不超过需求这么多倍时直接使用，否则缩小后使用
+     */
+    private static final int MAX_VARIANT_MULTIPLE = 2;
+    private static final String FIT_SUFFIX = "f";
+    private static final String REGION_SUFFIX = "c";
+
+    /**
+     * 按区域解码的图片宽高比相差不超过这个比例时才能互相代替
+     */
+    private static final float MAX_REGION_ASPECT_DIFF = 0.1f;
+
+    /**
+     * EXIF或MediaStore缩略图和原图的宽高比相差不超过这个比例时才能代替原图，
+     * 有的相机把16:9的照片加上黑边存成4:3的缩略图
+     */
+    private static final float MAX_THUMBNAIL_ASPECT_DIFF = 0.02f;
+
+    /**
+     * centerCrop裁掉的部分至少占整张图片的1/REGION_DECODE_MIN_DISCARD时才按区域解码，
+     * 否则打开BitmapRegionDecoder的开销比少解码的部分还大
+     */
+    private static final int REGION_DECODE_MIN_DISCARD = 4;
+
+    /**
+     * Bitmap复用池，LruCache淘汰的Bitmap放入池中，解码时通过inBitmap复用
+     * mDisplayedBitmaps 记录每个imageView正在显示的Bitmap
+     * mRetainedBitmaps 记录还在被后台使用（等待分发、写入磁盘缓存）的Bitmap及其引用数
+     * 这两类Bitmap即使被LruCache淘汰也不能放入池中复用
+     */
+    private BitmapPool mBitmapPool;
+    private final Map<ImageView, Bitmap> mDisplayedBitmaps = Collections.synchronizedMap(new WeakHashMap<ImageView, Bitmap>());
+    private final Map<Bitmap, Integer> mRetainedBitmaps = new HashMap<Bitmap, Integer>();
+
+    /**
+     * 堆外的第二级缓存，LruCache淘汰的小图保存到这里，没有配置时为null
+     * mSpillToOffHeap 内存紧张时为false，淘汰的图片直接放入复用池
+     */
+    private OffHeapBitmapCache mOffHeapCache;
+    private int mOffHeapCacheSize;
+    private volatile boolean mSpillToOffHeap = true;
+    private static final int DEFAULT_OFF_HEAP_CACHE_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * 磁盘缓存，保存已经压缩过的缩略图，第一次用到时才打开
+     * mDiskCacheExecutor 用来异步写入磁盘缓存
+     */
+    private volatile DiskLruCache mDiskCache;
+    private ExecutorService mDiskCacheExecutor;
+    private static final long DEFAULT_DISK_CACHE_SIZE = 50 * 1024 * 1024;
+    private static final String DISK_CACHE_DIR = "thumbnails";
+    /**
+     * 磁盘缓存内容的格式发生变化（比如开始按照EXIF方向旋转）时加1，旧的缓存自然失效
+     */
+    private static final int DISK_CACHE_VERSION = 3;
+    private long mDiskCacheSize;
+    private String mDiskCacheDirName;
+
+    /**
+     * 最近加载过的原图读取时的修改时间和大小，以及写入或命中的磁盘缓存key，原图变化时据此只让它自己的缓存失效
+     * 数量要比内存缓存和堆外缓存中的图片多，否则还在缓存中的图片的记录先被淘汰，修改后无法判断
+     */
+    private final LruCache<String, SourceRecord> mSourceRecords = new LruCache<String, SourceRecord>(MAX_SOURCE_RECORDS);
+    private static final int MAX_SOURCE_RECORDS = 4096;
+
+    /**
+     * 运行时统计和请求跟踪
+     */
+    private final ImageLoaderMetrics mMetrics = new ImageLoaderMetrics();
+
+    /**
+     * 加载分为几个阶段，每个阶段有自己的线程，互相不会占用：
+     * mIoDispatcher 读取：查找磁盘缓存、读取EXIF，把要解码的文件整个读入内存
+     * mDispatcher 解码：只做CPU计算，不再等待存储
+     * mPostDispatcher 后处理：旋转、加入内存缓存、写磁盘缓存、发送到UI线程
+     * 阶段之间有背压：读入内存但还没有解码的数组，加上mByteArrayPool中空闲的数组，总长度不超过mReadBudget，
+     * 解码完成等待后处理的任务不超过mPostSlots，下游处理不过来时上游的线程阻塞，不会无限堆积
+     */
+    private TaskDispatcher mIoDispatcher;
+    private TaskDispatcher mDispatcher;
+    private TaskDispatcher mPostDispatcher;
+    private Semaphore mReadBudget;
+    private int mReadBudgetSize;
+    private ByteArrayPool mByteArrayPool;
+    private Semaphore mPostSlots;
+    private static final int POST_SLOTS_PER_THREAD = 4;
+    private static final int DEFAULT_READ_BUDGET = 16 * 1024 * 1024;
+    private static final long BUDGET_RETRY_INTERVAL = 50;
+
+    /**
+     * 加载任务的阶段
+     */
+    private static final int STAGE_READ = 0;
+    private static final int STAGE_DECODE = 1;
+    private static final int STAGE_POST = 2;
+
+    /**
+     * 解码阶段的数据来源：缓存中更大尺寸的图片、磁盘缓存、EXIF或MediaStore缩略图、原图
+     */
+    private static final int SOURCE_VARIANT = 0;
+    private static final int SOURCE_DISK_CACHE = 1;
+    private static final int SOURCE_THUMBNAIL = 2;
+    private static final int SOURCE_ORIGINAL = 3;
     /**
      * 队列的调度方式
      */
     private Type mType = Type.LIFO;
 
     /**
-     * 任务队列
+     * 解码使用的Bitmap格式，为null时自动选择：不透明的图片（JPEG、没有透明度的PNG）用RGB_565，其他用ARGB_8888
+     */
+    private Bitmap.Config mBitmapConfig;
+
+    /**
+     * 配置的内存缓存、复用池容量和线程数，内存紧张时临时降低，压力解除后恢复
+     * 系统不会通知压力解除，只在界面重新加载图片时恢复，进程在后台时保持缩小：
+     * 界面不可见时的缩小在下一次loadImage时恢复；界面可见时的缩小在最后一次onTrimMemory之后RESTORE_DELAY才恢复，
+     * 期间新的可见级别的通知按照该级别重新设置
+     * mRestoreAt 可以恢复的时间（SystemClock.uptimeMillis），没有缩小时为0，只在UI线程中访问
+     */
+    private int mMemoryCacheSize;
+    private int mBitmapPoolSize;
+    private int mThreadCount;
+    private static final long RESTORE_DELAY = 30 * 1000;
+    private long mRestoreAt;
+
+    /**
+     * 是否默认使用渐进加载：图片有EXIF或MediaStore缩略图时先显示由它解码的很粗糙的预览，再替换成需求大小的图片
+     * 预览的边长为需求的1/PREVIEW_DIVISOR
      */
-    private LinkedList<Runnable> mTaskQueue;
+    private boolean mProgressive;
+    private static final int PREVIEW_DIVISOR = 8;
 
     /**
-     * 后台轮询线程
-     * mPoolThreadHandler 用来发送后台轮询message
+     * MediaStore缩略图超过这个大小时不用作预览，读取时不占用mReadBudget
      */
-    private Thread mPoolThread;
-    private Handler mPoolThreadHandler;
+    private static final int MAX_PREVIEW_SOURCE_SIZE = 256 * 1024;
 
     /**
-     * UI线程的Handler，用于更新图片
+     * centerCrop的imageView是否只解码显示的区域，见ImageSize.regionCrop
+     */
+    private boolean mRegionDecoding;
+
+    /**
+     * UI线程的Handler，用于安排下一帧的分发
      */
     private Handler mUIHandler;
+    private static final int MSG_SCHEDULE_FRAME = 0x110;
+
+    /**
+     * 后台完成的任务和预览（LoadTask或PreviewTask）先放入mPendingDeliveries，
+     * 每一帧开始时在UI线程中统一设置给imageView，而不是每张图片发送一个Message
+     * 每帧最多调用MAX_BITMAPS_PER_FRAME次setImageBitmap，或者最多占用MAX_DELIVERY_TIME_PER_FRAME，
+     * 剩下的留到下一帧，滑动时不会因为一次完成太多图片而掉帧
+     * mFrameScheduled 已经安排了帧回调，还没有执行
+     */
+    private final ConcurrentLinkedQueue<Object> mPendingDeliveries = new ConcurrentLinkedQueue<Object>();
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
+    private static final int MAX_BITMAPS_PER_FRAME = 6;
+    private static final long MAX_DELIVERY_TIME_PER_FRAME = 4 * 1000 * 1000L;
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flushDeliveries();
+        }
+    };
 
     /**
-     * 同步信号量
+     * 正在进行中的任务，相同path和大小的请求共用一个任务
+     * mViewTasks 记录每个imageView当前等待的任务，imageView被复用时取消旧的任务
+     * mViewPriorities 通过setPriority降低了优先级的imageView，没有记录的为VISIBLE
+     * 这几个Map只在UI线程中访问
      */
-    private Semaphore mSemaphorePoolThreadHandler = new Semaphore(0);
-    private Semaphore mSemaphoreThreadPool;
+    private Map<String, LoadTask> mInFlightTasks = new HashMap<String, LoadTask>();
+    private Map<ImageView, LoadTask> mViewTasks = new WeakHashMap<ImageView, LoadTask>();
+    private Map<ImageView, Priority> mViewPriorities = new WeakHashMap<ImageView, Priority>();
 
 
+    /**
+     * 同一优先级中任务的执行顺序
+     */
     public enum Type
     {
         FIFO, LIFO;
     }
+
+    /**
+     * 任务的优先级，从高到低，和TaskDispatcher.PRIORITY_开头的常量一一对应
+     * VISIBLE 屏幕上可见的imageView，loadImage的默认优先级
+     * NEAR_VISIBLE 刚滑出屏幕、可能马上又会显示的imageView
+     * PREFETCH 预加载
+     * BACKGROUND 不着急的后台加载
+     * 低优先级的任务等待足够久之后可以插队，不会一直等下去
+     */
+    public enum Priority
+    {
+        VISIBLE, NEAR_VISIBLE, PREFETCH, BACKGROUND
+    }
     /**
-     * 采用private构造方法，因此外界没办法new
+     * 采用private构造方法，外界通过getInstance或者Builder获得实例
      */
-    private ImageLoader(int threadCount, Type type){
-        init(threadCount, type);
+    private ImageLoader(Builder builder){
+        init(builder);
     }
 
     /**
      * 初始化
-     * @param threadCount
-     * @param type
+     * @param builder
      */
-    private void init(int threadCount, Type type) {
+    private void init(Builder builder) {
 
-        //后台轮询线程：通过handler + looper + message来实现
-        mPoolThread = new Thread(){
+        int cacheMemory = builder.getMemoryCacheSize();
+        mMemoryCacheSize = cacheMemory;
+        mBitmapPoolSize = builder.mBitmapPoolSize >= 0 ? builder.mBitmapPoolSize : cacheMemory / 2;
+        mBitmapPool = new BitmapPool(mBitmapPoolSize);
+        mOffHeapCacheSize = builder.mOffHeapCacheSize;
+        if (mOffHeapCacheSize > 0){
+            mOffHeapCache = new OffHeapBitmapCache(mOffHeapCacheSize);
+        }
+        mLruCache = new LruCache<String, Bitmap>(cacheMemory){
             @Override
-            public void run() {
+            protected int sizeOf(String key, Bitmap value) {
+                //测量每个Bitmap所占据的内存，复用的Bitmap实际分配的内存可能比像素需要的多
+                return value.getAllocationByteCount();
+            }
 
-                Looper.prepare();
-                mPoolThreadHandler = new Handler(){
-                    @Override
-                    public void handleMessage(Message msg) {
-
-                        //线程池去取出一个任务进行执行
-                        mThreadPool.execute(getTask());
-                        try {
-                            mSemaphoreThreadPool.acquire();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (newValue == null){
+                    removeCachedVariant(key);
+                }
+                if (evicted){
+                    mMetrics.increment(mMetrics.evictions);
+                    //放入复用池之前把像素保存到堆外缓存，每张最多要复制几MB，UI线程中的淘汰不保存，
+                    //即从堆外缓存提升回来时挤出的图片，见getAndRetainFromOffHeapCache
+                    if (mOffHeapCache != null && mSpillToOffHeap && Looper.myLooper() != Looper.getMainLooper()){
+                        mOffHeapCache.put(key, oldValue);
                     }
-                };
-                //释放一个信号量
-                mSemaphorePoolThreadHandler.release();
-                Looper.loop();
+                }
+                //被淘汰的Bitmap如果没有在使用，放入复用池
+                if (oldValue != newValue && !isBitmapInUse(oldValue)){
+                    mBitmapPool.put(oldValue);
+                }
             }
         };
 
-        mPoolThread.start();
+        //创建任务调度器
+        mType = builder.mType;
+        mThreadCount = builder.mThreadCount;
+        mIoDispatcher = new TaskDispatcher("ImageLoader-io", builder.mIoThreadCount, mType == Type.LIFO);
+        mDispatcher = new TaskDispatcher("ImageLoader-decode", mThreadCount, mType == Type.LIFO);
+        mPostDispatcher = new TaskDispatcher("ImageLoader-post", builder.getPostThreadCount(), false);
+        mReadBudgetSize = builder.getReadBudget();
+        mReadBudget = new Semaphore(mReadBudgetSize);
+        mByteArrayPool = new ByteArrayPool(mReadBudgetSize);
+        mPostSlots = new Semaphore(builder.getPostThreadCount() * POST_SLOTS_PER_THREAD);
 
-        //获取我们应用的最大可用内存
-        int maxMemory = (int) Runtime.getRuntime().maxMemory();
-        int cacheMemory = maxMemory / 8;
-        mLruCache = new LruCache<String, Bitmap>(cacheMemory){
+        mDiskCacheExecutor = Executors.newSingleThreadExecutor();
+        mDiskCacheSize = builder.mDiskCacheSize;
+        mDiskCacheDirName = builder.mDiskCacheDirName;
+        mBitmapConfig = builder.mBitmapConfig;
+        mProgressive = builder.mProgressive;
+        mRegionDecoding = builder.mRegionDecoding;
+
+        mUIHandler = new Handler(Looper.getMainLooper()){
             @Override
-            protected int sizeOf(String key, Bitmap value) {
-                //测量每个Bitmap所占据的内存
-                return value.getRowBytes()*value.getHeight();
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_SCHEDULE_FRAME){
+                    //Choreographer属于UI线程，只能在这里获取
+                    Choreographer.getInstance().postFrameCallback(mFrameCallback);
+                }
             }
         };
-
-        //创建线程池
-        mThreadPool = Executors.newFixedThreadPool(threadCount);
-        //创建任务队列
-        mTaskQueue = new LinkedList<Runnable>();
-        mType = type;
-
-        mSemaphoreThreadPool = new Semaphore(threadCount);
-    }
-
-    /**
-     * 从任务队列取出一个方法
-     * @return
-     */
-    private Runnable getTask() {
-        if (mType == Type.FIFO){
-            return mTaskQueue.removeFirst();
-        }else if (mType == Type.LIFO){
-            return  mTaskQueue.removeLast();
-        }
-        return null;
     }
 
     /**
-     * 由于构造方法为private，因此外界只能通过类名.方法名获得实例
+     * 获得默认的单例，参数只在第一次调用创建实例时生效，默认的单例用于图片墙，使用32M的堆外缓存和渐进加载
      * @return
-     * @param i
-     * @param lifo
+     * @param threadCount 解码线程数，不大于0时使用CPU核数
+     * @param type 队列的调度方式
      */
-    public static ImageLoader getInstance(int i, Type lifo){
+    public static ImageLoader getInstance(int threadCount, Type type){
         //两重判断：为了提高效率
         if (mInstance == null){  //先判断是否为空，若是空，则需要创建实例，否则不需要创建实例，此层过滤到了大部分的代码
             synchronized (ImageLoader.class){  /*因为上步未做同步处理，所以有可能有多个线程进入此步，这时做同步处理，
@@ -154,7 +352,9 @@ public class ImageLoader {
                 if (mInstance == null){ /*排队进来的线程需要再次判断mInstance是否为空
                 比如：synchronized之前进来了两个线程A和B，A先执行if (mInstance == null)判断，且创建了一个实例
                 然后B再接着判断if (mInstance == null)时，就不需要再次创建实例了*/
-                    mInstance = new ImageLoader(DEFAULT_THREAD_COUNT, Type.LIFO);
+                    mInstance = new Builder().setThreadCount(threadCount).setType(type)
+                            .setOffHeapCacheSize(DEFAULT_OFF_HEAP_CACHE_SIZE).setRegionDecoding(true)
+                            .setProgressive(true).build();
                 }
             }
         }
@@ -164,203 +364,2204 @@ public class ImageLoader {
 
 
     /**
-     *根据path为imageView设置图片
+     *根据path为imageView设置图片，必须在UI线程调用
      * @param path
      * @param imageView
      */
     public void loadImage(final String path, final ImageView imageView){
+        loadImage(path, imageView, mProgressive);
+    }
 
-        imageView.setTag(path);  //防止imageView复用多次造成混乱，所以设置path
+    /**
+     * 根据path为imageView设置图片，必须在UI线程调用
+     * @param path
+     * @param imageView
+     * @param progressive 缓存未命中时先显示缓存中其他尺寸的图片，或者由图片已有的缩略图解码的很粗糙的预览，再替换成需求大小的图片
+     */
+    public void loadImage(final String path, final ImageView imageView, boolean progressive){
+        loadImage(path, imageView, progressive, mBitmapConfig);
+    }
 
-        if (mUIHandler == null){
-            mUIHandler = new Handler(){
-                @Override
-                public void handleMessage(Message msg) {
-                    //获取得到图片，为imageView回调设置图片
-                    ImgBeanHolder holder = (ImgBeanHolder) msg.obj;
-                    Bitmap bm = holder.bitmap;
-                    ImageView imageView1 = holder.imageView;
-                    String path = holder.path;
+    /**
+     * 根据path为imageView设置图片，必须在UI线程调用
+     * 内存缓存中已有的相同尺寸的图片直接使用，不管是什么格式
+     * @param path
+     * @param imageView
+     * @param progressive 缓存未命中时先显示缓存中其他尺寸的图片，或者由图片已有的缩略图解码的很粗糙的预览，再替换成需求大小的图片
+     * @param config 解码使用的Bitmap格式，为null时自动选择
+     */
+    public void loadImage(final String path, final ImageView imageView, boolean progressive, Bitmap.Config config){
 
-                    //将path与getTag存储路径进行比较
-                    if (imageView1.getTag().toString().equals(path)){
+        //界面又在加载图片，内存压力已经解除时恢复容量
+        if (mRestoreAt != 0 && SystemClock.uptimeMillis() >= mRestoreAt){
+            restoreCapacity();
+        }
+        imageView.setTag(path);  //防止imageView复用多次造成混乱，所以设置path
+        forgetDisplayedBitmap(imageView);
 
-                        imageView1.setImageBitmap(bm);
-                    }
+        //1.获得图片需要显示的大小
+        ImageSize imageSize = getBucketSize(getImageViewSize(imageView));
+        String taskKey = getCacheKey(path, imageSize);
+        mMetrics.increment(mMetrics.requests);
 
-                }
-            };
+        //imageView被复用来显示别的图片，取消它之前等待的任务
+        LoadTask pending = mViewTasks.get(imageView);
+        mViewPriorities.remove(imageView);
+        if (pending != null){
+            if (pending.key.equals(taskKey)){
+                //imageView又回到屏幕上，恢复任务的优先级
+                updatePriority(pending);
+                return;
+            }
+            detachTarget(pending, imageView);
         }
 
-        //根据path在缓存中获取bitmap
-        Bitmap bm = getBitmapFromLruCache(path);
+        //根据path和大小在缓存中获取bitmap
+        Bitmap bm = getAndRetainCachedBitmap(path, imageSize);
+        if (bm == null){
+            bm = getAndRetainFromOffHeapCache(path, imageSize);
+        }
 
         if (bm != null){
-            refreashBitmap(bm, imageView, path);
-        }else{
+            mMetrics.trace(ImageLoaderMetrics.EVENT_MEMORY_HIT, path, imageSize.width, imageSize.height);
+            refreashBitmap(bm, imageView);
+            releaseBitmap(bm);
+            return;
+        }
 
-            addTask(new Runnable() {
-                @Override
-                public void run() {
-                    //加载图片
-                    //图片的压缩
-                    //1.获得图片需要显示的大小
-                    ImageSize imageSize = getImageViewSize(imageView);
-                    //2. 压缩图片
-                    Bitmap bm = decodeSampledBitmapFromPath(path, imageSize.width, imageSize.height);
-                    //3. 把图片加入到缓存
-                    addBitmapToLruCache(path, bm);
-                    //4. 回调
-                    refreashBitmap(bm, imageView, path);
-
-                    mSemaphoreThreadPool.release();
-                }
-            });
+        //相同path和大小的请求已经在进行中，只需要等待它的结果
+        LoadTask task = mInFlightTasks.get(taskKey);
+        if (task != null && !task.requireFullLoad()){
+            //只读磁盘缓存的预加载任务已经放弃，重新加载
+            task = null;
         }
-    }
+        boolean created = task == null;
+        if (created){
+            task = new LoadTask(taskKey, path, imageSize, config, imageView.getContext().getApplicationContext());
+            mInFlightTasks.put(taskKey, task);
+            mMetrics.trace(ImageLoaderMetrics.EVENT_ENQUEUED, path, imageSize.width, imageSize.height);
+        }
+        task.targets.add(imageView);
+        mViewTasks.put(imageView, task);
+        //等待预加载任务的结果时把它提升为可见的优先级
+        updatePriority(task);
 
-    private void refreashBitmap(Bitmap bm, ImageView imageView, String path) {
-        Message message = Message.obtain();
-        ImgBeanHolder holder = new ImgBeanHolder();
-        holder.bitmap = bm;
-        holder.imageView = imageView;
-        holder.path = path;
-        message.obj = holder;
-        mUIHandler.sendMessage(message);
+        if (progressive && !showCachedPreview(path, imageSize, imageView) && task.preview == null){
+            //预览任务的读取和解码都以高优先级执行，所有可见imageView的预览都先于完整的图片加载
+            task.preview = new PreviewTask(task);
+            mIoDispatcher.executeHighPriority(task.preview);
+        }
+        if (created){
+            addTask(task);
+        }
     }
 
     /**
-     * 将图片加入LruCache
+     * 缓存中有该图片的其他尺寸时，先把它作为预览显示
      * @param path
-     * @param bm
+     * @param imageSize
+     * @param imageView
+     * @return 是否显示了预览
      */
-    private void addBitmapToLruCache(String path, Bitmap bm) {
+    private boolean showCachedPreview(String path, ImageSize imageSize, ImageView imageView) {
+        ImageSize variant = findLargerVariant(path, imageSize);
+        if (variant == null){
+            variant = findSmallerVariant(path, imageSize);
+        }
+        if (variant == null){
+            return false;
+        }
+        Bitmap bm = getAndRetainFromLruCache(getCacheKey(path, variant));
+        if (bm == null){
+            return false;
+        }
+        refreashBitmap(bm, imageView);
+        releaseBitmap(bm);
+        return true;
+    }
 
-        if (getBitmapFromLruCache(path) == null){
-            if (bm != null){
-                mLruCache.put(path, bm);
-            }
+    /**
+     * 修改imageView正在等待的任务的优先级，比如imageView滑出屏幕时降低为NEAR_VISIBLE，必须在UI线程调用
+     * 多个imageView等待同一个任务时按照其中最高的优先级执行；再次调用loadImage时恢复为VISIBLE
+     * @param imageView
+     * @param priority
+     */
+    public void setPriority(ImageView imageView, Priority priority){
+        if (priority == Priority.VISIBLE){
+            mViewPriorities.remove(imageView);
+        }else{
+            mViewPriorities.put(imageView, priority);
+        }
+        LoadTask task = mViewTasks.get(imageView);
+        if (task != null){
+            updatePriority(task);
         }
     }
 
     /**
-     * 根据图片需要显示的宽和高对图片进行压缩
-     * @param path
-     * @param width: 需求的宽
-     * @param height： 需求的高
-     * @return
+     * imageView不再需要之前请求的图片时调用，比如被复用到还没有数据的位置，必须在UI线程调用
+     * 调用前imageView应该已经设置了占位图：取消它对任务的等待，没有其他imageView等待时取消任务，
+     * 并且不再把它之前显示的Bitmap当作正在使用
+     * @param imageView
      */
-    private Bitmap decodeSampledBitmapFromPath(String path, int width, int height) {
+    public void cancel(ImageView imageView){
+        imageView.setTag(null);
+        mViewPriorities.remove(imageView);
+        mDisplayedBitmaps.remove(imageView);
+        LoadTask pending = mViewTasks.get(imageView);
+        if (pending != null){
+            detachTarget(pending, imageView);
+        }
+    }
 
-        //获得图片的宽和高，并不把图片加载到内存中
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(path, options);
+    /**
+     * 按照任务自身的优先级和所有等待它的imageView的优先级重新计算，取最高的
+     * @param task
+     */
+    private void updatePriority(LoadTask task) {
+        int priority = task.basePriority;
+        for (ImageView imageView : task.targets){
+            Priority viewPriority = mViewPriorities.get(imageView);
+            priority = Math.min(priority, viewPriority != null ? viewPriority.ordinal() : TaskDispatcher.PRIORITY_VISIBLE);
+        }
+        task.setPriority(priority);
+    }
 
-        options.inSampleSize = caculateInSampleSize(options, width, height);
+    /**
+     * 按照sizeReference的显示大小预加载图片，必须在UI线程调用
+     * @param path
+     * @param sizeReference 和将要显示该图片的imageView大小相同的imageView
+     */
+    public void prefetch(String path, ImageView sizeReference){
+        prefetch(path, sizeReference, Priority.PREFETCH);
+    }
 
-        //使用获取到的InSampleSize再次解析图片
-        options.inJustDecodeBounds = false;
-        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
-        return bitmap;
+    /**
+     * 按照sizeReference的显示大小预加载图片，必须在UI线程调用
+     * @param path
+     * @param sizeReference 和将要显示该图片的imageView大小相同的imageView
+     * @param priority 离可见区域很近时可以用NEAR_VISIBLE
+     */
+    public void prefetch(String path, ImageView sizeReference, Priority priority){
+        prefetch(path, getImageViewSize(sizeReference), sizeReference.getContext(), priority);
     }
 
     /**
-     * 根据需求的宽和高以及图片实际的宽和高计算SampleSize
-     * @param options
-     * @param reqWidth
-     * @param reqHeight
-     * @return
+     * 预加载图片到缓存中，以PREFETCH优先级执行，必须在UI线程调用
+     * @param path
+     * @param width 需求的宽
+     * @param height 需求的高
+     * @param context
      */
-    private int caculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        int width = options.outWidth;
-        int height = options.outHeight;
+    public void prefetch(String path, int width, int height, Context context){
+        ImageSize imageSize = new ImageSize();
+        imageSize.width = width;
+        imageSize.height = height;
+        prefetch(path, imageSize, context, Priority.PREFETCH);
+    }
 
-        int inSampleSize = 1;
+    private void prefetch(String path, ImageSize viewSize, Context context, Priority priority){
+        ImageSize imageSize = getBucketSize(viewSize);
+        String taskKey = getCacheKey(path, imageSize);
+        if (mLruCache.get(taskKey) != null || findLargerVariant(path, imageSize) != null
+                || mInFlightTasks.containsKey(taskKey) || (mOffHeapCache != null && mOffHeapCache.contains(taskKey))){
+            return;
+        }
+        LoadTask task = new LoadTask(taskKey, path, imageSize, mBitmapConfig, context.getApplicationContext());
+        task.basePriority = priority.ordinal();
+        task.setPriority(task.basePriority);
+        mInFlightTasks.put(taskKey, task);
+        addTask(task);
+    }
 
-        if (width > reqWidth || height > reqHeight){
-            int widthRadio = Math.round(width*1.0f/reqWidth);
-            int heightRadio = Math.round(height*1.0f/reqHeight);
+    /**
+     * 只从磁盘缓存预加载图片到内存缓存，磁盘缓存中没有时直接放弃，不读取原图，不和正在显示的图片抢解码线程
+     * 用于启动时恢复上次屏幕上的图片，以VISIBLE优先级执行；imageView在完成之前等待它时，没有命中会继续按正常流程加载
+     * 必须在UI线程调用
+     * @param cacheKey getCacheKey(String, ImageView)返回的key
+     * @param context
+     */
+    public void preloadFromDiskCache(String cacheKey, Context context){
+        ImageSize imageSize = parseCacheKey(cacheKey);
+        if (imageSize == null || mLruCache.get(cacheKey) != null || mInFlightTasks.containsKey(cacheKey)
+                || (mOffHeapCache != null && mOffHeapCache.contains(cacheKey))){
+            return;
+        }
+        String path = cacheKey.substring(0, cacheKey.lastIndexOf('@'));
+        LoadTask task = new LoadTask(cacheKey, path, imageSize, mBitmapConfig, context.getApplicationContext());
+        task.diskCacheOnly = true;
+        task.basePriority = TaskDispatcher.PRIORITY_VISIBLE;
+        task.setPriority(task.basePriority);
+        mInFlightTasks.put(cacheKey, task);
+        addTask(task);
+    }
 
-            inSampleSize = Math.max(widthRadio, heightRadio);
+    /**
+     * 原图可能被修改、删除或移走时调用，需要读取文件的状态，应该在后台线程调用
+     * 修改时间和大小都和加载时一样的不做处理；没有加载记录的只在文件已经不存在时处理
+     * 需要处理时只移除这张图片在内存、堆外和磁盘缓存中的所有尺寸，内存缓存在UI线程中移除；
+     * 正在显示的图片不受影响，重新调用loadImage时加载新的内容
+     * @param path
+     * @return 是否需要移除缓存
+     */
+    public boolean invalidate(final String path){
+        File file = new File(path);
+        final SourceRecord record = mSourceRecords.get(path);
+        if (record != null){
+            if (file.lastModified() == record.modified && file.length() == record.length){
+                return false;
+            }
+        }else if (file.exists()){
+            //不知道加载时的状态，不能断定缓存已经过期
+            return false;
+        }
+        mSourceRecords.remove(path);
+        mUIHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                removeFromMemoryCache(path);
+            }
+        });
+        if (mOffHeapCache != null){
+            mOffHeapCache.removeByPrefix(path + "@");
+        }
+        final DiskLruCache diskCache = mDiskCache;
+        if (record != null && diskCache != null){
+            mDiskCacheExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (String diskKey : record.getDiskKeys()){
+                        diskCache.remove(diskKey);
+                    }
+                }
+            });
         }
-        return inSampleSize;
+        return true;
     }
 
+    /**
+     * 在UI线程中移除path在LruCache中的所有尺寸
+     * @param path
+     */
+    private void removeFromMemoryCache(String path) {
+        //移除时entryRemoved会更新mCachedVariants，先复制一份
+        List<ImageSize> variants;
+        synchronized (mCachedVariants){
+            List<ImageSize> cached = mCachedVariants.get(path);
+            if (cached == null){
+                return;
+            }
+            variants = new ArrayList<ImageSize>(cached);
+        }
+        for (ImageSize variant : variants){
+            mLruCache.remove(getCacheKey(path, variant));
+        }
+    }
 
     /**
-     * 根据imageView获得适当的压缩的宽和高
+     * 获取path按照imageView当前的大小加载时使用的缓存key，可以保存下来之后交给preloadFromDiskCache
+     * @param path
      * @param imageView
      * @return
      */
-    private ImageSize getImageViewSize(ImageView imageView) {
+    public String getCacheKey(String path, ImageView imageView){
+        return getCacheKey(path, getBucketSize(getImageViewSize(imageView)));
+    }
 
-        ImageSize imageSize = new ImageSize();
+    /**
+     * 暂停加载，暂停期间只有缓存命中的图片会显示，未命中的任务排队等待
+     * 一般在列表快速滑动（fling）时调用
+     */
+    public void pause(){
+        mIoDispatcher.pause();
+        mDispatcher.pause();
+    }
 
-        DisplayMetrics displayMetrics = imageView.getContext().getResources().getDisplayMetrics();
-        ViewGroup.LayoutParams lp = imageView.getLayoutParams();
-        int width = imageView.getWidth(); //获取imageView的实际宽度
-        if (width <= 0){
+    /**
+     * 恢复加载，仍在等待的任务（即当前可见的imageView）会先于预加载任务执行
+     */
+    public void resume(){
+        mIoDispatcher.resume();
+        mDispatcher.resume();
+    }
 
-            width = lp.width; //获取imageView在layout中声明的宽度
-        }
-        if (width <= 0){
-            width = imageView.getMaxWidth(); //检查最大值
+    /**
+     * 系统内存紧张时回调，需要通过Context.registerComponentCallbacks注册
+     * 按照紧张程度缩小或清空内存缓存和复用池，并降低解码的并发数
+     * @param level
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        String before = getCacheUsage();
+        if (level < TRIM_MEMORY_UI_HIDDEN && mRestoreAt != 0){
+            //界面可见时按照新的级别重新设置，之前更严重的级别的缩小不再保留
+            restoreCapacity();
         }
-        if (width <= 0){
-            width = displayMetrics.widthPixels; //获取屏幕宽度
+        if (level >= TRIM_MEMORY_MODERATE){
+            //进程在后台LRU列表的中后部，随时可能被杀，全部释放
+            shrink(0, 0, 0, 1, 0);
+        }else if (level >= TRIM_MEMORY_BACKGROUND){
+            shrink(mMemoryCacheSize / 4, 0, mOffHeapCacheSize / 4, 1, 0);
+        }else if (level >= TRIM_MEMORY_UI_HIDDEN){
+            //界面不可见，正在显示的图片已经不需要了，堆外缓存保留着回到前台时使用
+            shrink(mMemoryCacheSize / 2, 0, mOffHeapCacheSize, mThreadCount, 0);
+        }else if (level >= TRIM_MEMORY_RUNNING_CRITICAL){
+            shrink(mMemoryCacheSize / 4, 0, 0, 1, RESTORE_DELAY);
+        }else if (level >= TRIM_MEMORY_RUNNING_LOW){
+            shrink(mMemoryCacheSize / 2, mBitmapPoolSize / 2, mOffHeapCacheSize / 2, Math.max(mThreadCount / 2, 1),
+                    RESTORE_DELAY);
+        }else if (level >= TRIM_MEMORY_RUNNING_MODERATE){
+            shrink(mMemoryCacheSize, mBitmapPoolSize / 2, mOffHeapCacheSize, mThreadCount, RESTORE_DELAY);
         }
+        Log.i(TAG, "onTrimMemory(" + level + ") before: " + before + " after: " + getCacheUsage());
+    }
 
-        int height = imageView.getHeight(); //获取imageView的实际宽度
-        if (height <= 0){
+    @Override
+    public void onLowMemory() {
+        String before = getCacheUsage();
+        shrink(0, 0, 0, 1, RESTORE_DELAY);
+        Log.i(TAG, "onLowMemory before: " + before + " after: " + getCacheUsage());
+    }
 
-            height = lp.height; //获取imageView在layout中声明的宽度
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * 临时缩小容量，见mRestoreAt
+     * @param memoryCacheSize
+     * @param bitmapPoolSize
+     * @param offHeapCacheSize 为0时放开整块堆外内存
+     * @param concurrency
+     * @param restoreDelay 至少这么久之后下一次loadImage才恢复，为0时下一次loadImage就恢复
+     */
+    private void shrink(int memoryCacheSize, int bitmapPoolSize, int offHeapCacheSize, int concurrency,
+                        long restoreDelay) {
+        //缩小时LruCache淘汰的图片不保存到堆外缓存，内存紧张时不应该再复制像素
+        boolean spill = mSpillToOffHeap;
+        mSpillToOffHeap = false;
+        if (mOffHeapCache != null){
+            if (offHeapCacheSize == 0){
+                mOffHeapCache.release();
+            }else{
+                mOffHeapCache.resize(offHeapCacheSize);
+            }
         }
-        if (height <= 0){
-            height = imageView.getMaxHeight(); //检查最大值
+        if (memoryCacheSize == 0){
+            mLruCache.evictAll();
         }
-        if (height <= 0){
-            height = displayMetrics.heightPixels; //获取屏幕宽度
+        mLruCache.resize(Math.max(memoryCacheSize, 1));
+        //LruCache淘汰的Bitmap会放入复用池，所以最后处理复用池
+        mBitmapPool.resize(bitmapPoolSize);
+        mReadBudget.release(mByteArrayPool.clear());
+        mDispatcher.setMaxConcurrency(concurrency);
+        //堆外缓存放开之后直到恢复都不再保存
+        mSpillToOffHeap = spill && offHeapCacheSize != 0;
+
+        mRestoreAt = Math.max(mRestoreAt, SystemClock.uptimeMillis() + restoreDelay);
+    }
+
+    private void restoreCapacity() {
+        mRestoreAt = 0;
+        mLruCache.resize(mMemoryCacheSize);
+        if (mOffHeapCache != null){
+            mOffHeapCache.resize(mOffHeapCacheSize);
+            mSpillToOffHeap = true;
         }
+        mBitmapPool.resize(mBitmapPoolSize);
+        mDispatcher.setMaxConcurrency(mThreadCount);
+        Log.i(TAG, "capacity restored: " + getCacheUsage());
+    }
 
-        imageSize.height = height;
-        imageSize.width = width;
+    /**
+     * 内存缓存、复用池的占用和当前并发数
+     * @return
+     */
+    public String getCacheUsage() {
+        return "memoryCache=" + mLruCache.size() + "/" + mLruCache.maxSize()
+                + " pool=" + mBitmapPool.getSize() + "/" + mBitmapPool.getMaxSize()
+                + (mOffHeapCache != null ? " offHeap=" + mOffHeapCache.getSize() + "/" + mOffHeapCache.getMaxSize() : "")
+                + " concurrency=" + mDispatcher.getMaxConcurrency() + "/" + mThreadCount;
+    }
 
-        return imageSize;
+    /**
+     * 停止所有线程，排队中的任务不再执行，之后不能再使用该实例
+     * 通过Builder创建的实例不再需要时应该调用，默认的单例不需要
+     */
+    public void shutdown(){
+        mUIHandler.removeMessages(MSG_SCHEDULE_FRAME);
+        mIoDispatcher.shutdown();
+        mDispatcher.shutdown();
+        mPostDispatcher.shutdown();
+        mDiskCacheExecutor.shutdown();
     }
 
-    private synchronized void addTask(Runnable runnable) {
-        mTaskQueue.add(runnable);
+    /**
+     * 取消imageView对任务的等待，任务没有任何等待者时取消任务
+     * @param task
+     * @param imageView
+     */
+    private void detachTarget(LoadTask task, ImageView imageView) {
+        mViewTasks.remove(imageView);
+        task.targets.remove(imageView);
+        if (task.targets.isEmpty()){
+            task.cancel();
+            mMetrics.increment(mMetrics.cancelled);
+            mMetrics.trace(ImageLoaderMetrics.EVENT_CANCELLED, task.path, task.imageSize.width, task.imageSize.height);
+            if (mInFlightTasks.get(task.key) == task){
+                mInFlightTasks.remove(task.key);
+            }
+        }
+    }
 
-        //if(mPoolThreadHandler == null) wait
+    /**
+     * 在UI线程中将预览设置给仍在等待完整图片的imageView
+     * @param preview
+     * @return 调用setImageBitmap的次数
+     */
+    private int deliverPreview(PreviewTask preview) {
+        LoadTask task = preview.task;
+        int count = 0;
+        //完整的图片已经在同一批中先分发了
+        if (task.targets.isEmpty()){
+            return count;
+        }
+        for (ImageView imageView : task.targets){
+            if (mViewTasks.get(imageView) == task && task.path.equals(imageView.getTag())){
+                mDisplayedBitmaps.put(imageView, preview.result);
+                imageView.setImageBitmap(preview.result);
+                count++;
+            }
+        }
+        mMetrics.trace(ImageLoaderMetrics.EVENT_PREVIEW, task.path, preview.width, preview.height);
+        return count;
+    }
 
-        try {
-            if (mPoolThreadHandler == null)
-                mSemaphorePoolThreadHandler.acquire();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * 在UI线程中将任务的结果设置给所有仍在等待的imageView
+     * @param task
+     * @return 调用setImageBitmap的次数
+     */
+    private int deliverTask(LoadTask task) {
+        int count = 0;
+        if (mInFlightTasks.get(task.key) == task){
+            mInFlightTasks.remove(task.key);
+        }
+        for (ImageView imageView : task.targets){
+            if (mViewTasks.get(imageView) == task){
+                mViewTasks.remove(imageView);
+                if (task.result != null && task.path.equals(imageView.getTag())){
+                    mDisplayedBitmaps.put(imageView, task.result);
+                    imageView.setImageBitmap(task.result);
+                    count++;
+                }else if (task.result != null){
+                    mMetrics.increment(mMetrics.droppedResults);
+                    mMetrics.trace(ImageLoaderMetrics.EVENT_DROPPED, task.path, task.imageSize.width, task.imageSize.height);
+                }
+            }
+        }
+        if (count > 0 && task.basePriority != TaskDispatcher.PRIORITY_PREFETCH && mMetrics.isEnabled()){
+            mMetrics.record(mMetrics.timeToVisible, System.nanoTime() - task.enqueuedAt);
         }
-        mPoolThreadHandler.sendEmptyMessage(0x110);
+        task.targets.clear();
+        releaseBitmap(task.result);
+        mMetrics.trace(ImageLoaderMetrics.EVENT_DELIVERED, task.path, task.imageSize.width, task.imageSize.height);
+        return count;
     }
 
     /**
-     * 根据path在缓存中获取bitmap
-     * @param path
-     * @return
+     * 在UI线程中直接设置缓存中的图片
+     * @param bm
+     * @param imageView
      */
-    private Bitmap getBitmapFromLruCache(String path) {
-        return mLruCache.get(path);
+    private void refreashBitmap(Bitmap bm, ImageView imageView) {
+        mDisplayedBitmaps.put(imageView, bm);
+        imageView.setImageBitmap(bm);
     }
 
-    private class ImgBeanHolder{
-        Bitmap bitmap;
-        ImageView imageView;
-        String path;
+    /**
+     * 在后台线程中把完成的任务或预览加入下一帧的分发
+     * @param delivery LoadTask或PreviewTask
+     */
+    private void postDelivery(Object delivery) {
+        mPendingDeliveries.offer(delivery);
+        scheduleFrame();
     }
 
+    private void scheduleFrame() {
+        if (mFrameScheduled.compareAndSet(false, true)){
+            mUIHandler.sendEmptyMessage(MSG_SCHEDULE_FRAME);
+        }
+    }
+
+    /**
+     * 帧回调中分发等待中的结果，超过本帧的数量或时间限制时留到下一帧
+     */
+    private void flushDeliveries() {
+        long start = System.nanoTime();
+        int bitmaps = 0;
+        Object delivery;
+        while (bitmaps < MAX_BITMAPS_PER_FRAME && System.nanoTime() - start < MAX_DELIVERY_TIME_PER_FRAME
+                && (delivery = mPendingDeliveries.poll()) != null){
+            if (delivery instanceof LoadTask){
+                bitmaps += deliverTask((LoadTask) delivery);
+            }else{
+                bitmaps += deliverPreview((PreviewTask) delivery);
+            }
+        }
+        if (!mPendingDeliveries.isEmpty()){
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            return;
+        }
+        mFrameScheduled.set(false);
+        //清除标记之前后台线程可能又加入了结果，但是没有安排帧回调
+        if (!mPendingDeliveries.isEmpty()){
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * imageView已经不再显示之前记录的Bitmap时（比如被设置了占位图），去掉记录
+     * @param imageView
+     */
+    private void forgetDisplayedBitmap(ImageView imageView) {
+        Bitmap shown = mDisplayedBitmaps.get(imageView);
+        if (shown == null){
+            return;
+        }
+        Drawable drawable = imageView.getDrawable();
+        if (!(drawable instanceof BitmapDrawable) || ((BitmapDrawable) drawable).getBitmap() != shown){
+            mDisplayedBitmaps.remove(imageView);
+        }
+    }
+
+    private void retainBitmap(Bitmap bm) {
+        if (bm == null){
+            return;
+        }
+        synchronized (mRetainedBitmaps){
+            Integer count = mRetainedBitmaps.get(bm);
+            mRetainedBitmaps.put(bm, count == null ? 1 : count + 1);
+        }
+    }
+
+    private void releaseBitmap(Bitmap bm) {
+        if (bm == null){
+            return;
+        }
+        synchronized (mRetainedBitmaps){
+            Integer count = mRetainedBitmaps.get(bm);
+            if (count == null || count <= 1){
+                mRetainedBitmaps.remove(bm);
+            }else{
+                mRetainedBitmaps.put(bm, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Bitmap是否正在显示或者被后台使用
+     * @param bm
+     * @return
+     */
+    private boolean isBitmapInUse(Bitmap bm) {
+        synchronized (mRetainedBitmaps){
+            if (mRetainedBitmaps.containsKey(bm)){
+                return true;
+            }
+        }
+        return mDisplayedBitmaps.containsValue(bm);
+    }
+
+    /**
+     * 运行时统计，可以关闭统计或者设置请求跟踪的监听
+     * @return
+     */
+    public ImageLoaderMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 当前所有统计的文字描述，包括缓存占用、复用池和排队的任务数
+     * @return
+     */
+    public String dumpMetrics() {
+        return mMetrics
+                + "\nmemoryCache: " + mLruCache.size() + "/" + mLruCache.maxSize() + " bytes"
+                + " hitRatio=" + mMetrics.getMemoryHitRatio()
+                + "\n" + mBitmapPool
+                + (mOffHeapCache != null ? "\n" + mOffHeapCache : "")
+                + "\nqueued: io=" + mIoDispatcher.getQueueSize() + " decode=" + mDispatcher.getQueueSize()
+                + " post=" + mPostDispatcher.getQueueSize()
+                + " readBuffered=" + (mReadBudgetSize - mReadBudget.availablePermits()) + "/" + mReadBudgetSize + " bytes"
+                + (mDiskCache != null ? "\ndiskCache: " + mDiskCache.size() + "/" + mDiskCache.getMaxSize() + " bytes" : "");
+    }
+
+    /**
+     * Bitmap复用池，可以通过它查看复用的命中情况
+     * @return
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * 堆外缓存，没有配置时为null
+     * @return
+     */
+    public OffHeapBitmapCache getOffHeapCache() {
+        return mOffHeapCache;
+    }
+
+    /**
+     * 将图片加入LruCache
+     * @param path
+     * @param imageSize 分档后的需求大小
+     * @param bm
+     */
+    private void addBitmapToLruCache(String path, ImageSize imageSize, Bitmap bm) {
+
+        String key = getCacheKey(path, imageSize);
+        if (mLruCache.get(key) == null){
+            if (bm != null){
+                synchronized (mCachedVariants){
+                    List<ImageSize> variants = mCachedVariants.get(path);
+                    if (variants == null){
+                        variants = new ArrayList<ImageSize>(1);
+                        mCachedVariants.put(path, variants);
+                    }
+                    variants.add(imageSize);
+                }
+                mLruCache.put(key, bm);
+            }
+        }
+    }
+
+    /**
+     * 缓存的key：path@宽x高，放进显示区域（不裁剪）的图片再加上FIT_SUFFIX，只解码了centerCrop区域的加上REGION_SUFFIX
+     * @param path
+     * @param imageSize 分档后的需求大小
+     * @return
+     */
+    private String getCacheKey(String path, ImageSize imageSize) {
+        return path + "@" + imageSize.width + "x" + imageSize.height + getSizeSuffix(imageSize);
+    }
+
+    private String getSizeSuffix(ImageSize imageSize) {
+        if (imageSize.regionCrop){
+            return REGION_SUFFIX;
+        }
+        return imageSize.crop ? "" : FIT_SUFFIX;
+    }
+
+    /**
+     * 把需求的宽高向上取整到SIZE_BUCKET的倍数
+     * @param imageSize
+     * @return
+     */
+    private ImageSize getBucketSize(ImageSize imageSize) {
+        ImageSize bucket = new ImageSize();
+        bucket.targetWidth = Math.max(imageSize.width, 1);
+        bucket.targetHeight = Math.max(imageSize.height, 1);
+        bucket.width = (bucket.targetWidth + SIZE_BUCKET - 1) / SIZE_BUCKET * SIZE_BUCKET;
+        bucket.height = (bucket.targetHeight + SIZE_BUCKET - 1) / SIZE_BUCKET * SIZE_BUCKET;
+        bucket.crop = imageSize.crop;
+        bucket.regionCrop = imageSize.regionCrop;
+        return bucket;
+    }
+
+    /**
+     * 从缓存的key中解析出分档后的尺寸，targetWidth和targetHeight取分档的大小
+     * @param key getCacheKey返回的key
+     * @return 格式不对时返回null
+     */
+    private ImageSize parseCacheKey(String key) {
+        int at = key.lastIndexOf('@');
+        int x = key.lastIndexOf('x');
+        if (at <= 0 || x < at){
+            return null;
+        }
+        ImageSize imageSize = new ImageSize();
+        String suffix = key.endsWith(FIT_SUFFIX) ? FIT_SUFFIX : (key.endsWith(REGION_SUFFIX) ? REGION_SUFFIX : "");
+        try {
+            imageSize.width = Integer.parseInt(key.substring(at + 1, x));
+            imageSize.height = Integer.parseInt(key.substring(x + 1, key.length() - suffix.length()));
+        } catch (NumberFormatException e){
+            return null;
+        }
+        imageSize.targetWidth = imageSize.width;
+        imageSize.targetHeight = imageSize.height;
+        imageSize.crop = !suffix.equals(FIT_SUFFIX);
+        imageSize.regionCrop = suffix.equals(REGION_SUFFIX);
+        return imageSize;
+    }
+
+    /**
+     * 缓存中的一个尺寸被移除后，更新mCachedVariants
+     * @param key
+     */
+    private void removeCachedVariant(String key) {
+        ImageSize removed = parseCacheKey(key);
+        if (removed == null){
+            return;
+        }
+        String path = key.substring(0, key.lastIndexOf('@'));
+        String suffix = getSizeSuffix(removed);
+        synchronized (mCachedVariants){
+            List<ImageSize> variants = mCachedVariants.get(path);
+            if (variants == null){
+                return;
+            }
+            for (int i = 0; i < variants.size(); i++){
+                ImageSize variant = variants.get(i);
+                if (variant.width == removed.width && variant.height == removed.height && getSizeSuffix(variant).equals(suffix)){
+                    variants.remove(i);
+                    break;
+                }
+            }
+            if (variants.isEmpty()){
+                mCachedVariants.remove(path);
+            }
+        }
+    }
+
+    /**
+     * 在缓存中找一个宽高都不小于需求的最小尺寸
+     * @param path
+     * @param imageSize
+     * @return 没有时返回null
+     */
+    private ImageSize findLargerVariant(String path, ImageSize imageSize) {
+        synchronized (mCachedVariants){
+            List<ImageSize> variants = mCachedVariants.get(path);
+            if (variants == null){
+                return null;
+            }
+            ImageSize best = null;
+            for (ImageSize variant : variants){
+                if (isCompatibleVariant(variant, imageSize) && variant.width >= imageSize.width && variant.height >= imageSize.height
+                        && (best == null || variant.width * variant.height < best.width * best.height)){
+                    best = variant;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * 在缓存中找一个宽高都小于需求的最大尺寸
+     * @param path
+     * @param imageSize
+     * @return 没有时返回null
+     */
+    private ImageSize findSmallerVariant(String path, ImageSize imageSize) {
+        synchronized (mCachedVariants){
+            List<ImageSize> variants = mCachedVariants.get(path);
+            if (variants == null){
+                return null;
+            }
+            ImageSize best = null;
+            for (ImageSize variant : variants){
+                if (isCompatibleVariant(variant, imageSize) && variant.width < imageSize.width && variant.height < imageSize.height
+                        && (best == null || variant.width * variant.height > best.width * best.height)){
+                    best = variant;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * 同一张图片的另一个尺寸能否缩放后代替需求的尺寸：显示方式必须相同，
+     * 按区域解码的图片只包含centerCrop的区域，宽高比也要接近
+     * @param variant
+     * @param imageSize
+     * @return
+     */
+    private boolean isCompatibleVariant(ImageSize variant, ImageSize imageSize) {
+        if (variant.crop != imageSize.crop || variant.regionCrop != imageSize.regionCrop){
+            return false;
+        }
+        if (!variant.regionCrop){
+            return true;
+        }
+        float ratio = (float) variant.targetWidth * imageSize.targetHeight / ((float) variant.targetHeight * imageSize.targetWidth);
+        return ratio > 1 - MAX_REGION_ASPECT_DIFF && ratio < 1 + MAX_REGION_ASPECT_DIFF;
+    }
+
+    /**
+     * 在缓存中获取可以直接显示的bitmap：相同尺寸的，或者不超过需求MAX_VARIANT_MULTIPLE倍的更大尺寸
+     * 返回的bitmap已经retain，用完后需要release
+     * @param path
+     * @param imageSize 分档后的需求大小
+     * @return
+     */
+    private Bitmap getAndRetainCachedBitmap(String path, ImageSize imageSize) {
+        Bitmap bm = getAndRetainFromLruCache(getCacheKey(path, imageSize));
+        if (bm != null){
+            mMetrics.increment(mMetrics.memoryHits);
+            return bm;
+        }
+        ImageSize variant = findLargerVariant(path, imageSize);
+        if (variant != null && variant.width <= imageSize.width * MAX_VARIANT_MULTIPLE
+                && variant.height <= imageSize.height * MAX_VARIANT_MULTIPLE){
+            bm = getAndRetainFromLruCache(getCacheKey(path, variant));
+            if (bm != null){
+                mMetrics.increment(mMetrics.variantHits);
+            }
+        }
+        return bm;
+    }
+
+    /**
+     * 从堆外缓存中恢复相同尺寸的图片，并放回LruCache，在UI线程中调用
+     * 放回时LruCache淘汰的图片不再复制到堆外缓存，直接放入复用池，不在UI线程中复制像素
+     * 返回的bitmap已经retain，用完后需要release
+     * @param path
+     * @param imageSize 分档后的需求大小
+     * @return
+     */
+    private Bitmap getAndRetainFromOffHeapCache(String path, ImageSize imageSize) {
+        if (mOffHeapCache == null){
+            return null;
+        }
+        Bitmap bm = mOffHeapCache.get(getCacheKey(path, imageSize), mBitmapPool);
+        if (bm == null){
+            return null;
+        }
+        mMetrics.increment(mMetrics.offHeapHits);
+        retainBitmap(bm);
+        addBitmapToLruCache(path, imageSize, bm);
+        return bm;
+    }
+
+    /**
+     * 从LruCache中获取bitmap并retain，两步在同一个锁中完成，中间不会被淘汰到复用池
+     * @param key
+     * @return
+     */
+    private Bitmap getAndRetainFromLruCache(String key) {
+        synchronized (mRetainedBitmaps){
+            Bitmap bm = mLruCache.get(key);
+            retainBitmap(bm);
+            return bm;
+        }
+    }
+
+    /**
+     * 把缓存中更大尺寸的图片缩小到显示的大小，保持宽高比，crop时缩小后仍然覆盖显示的宽高
+     * @param source
+     * @param imageSize
+     * @return 不需要缩小时返回null
+     */
+    private Bitmap scaleBitmap(Bitmap source, ImageSize imageSize) {
+        float scale = DecodeUtils.getTargetScale(source.getWidth(), source.getHeight(),
+                imageSize.targetWidth, imageSize.targetHeight, imageSize.crop);
+        if (scale >= 1){
+            return null;
+        }
+        int width = Math.max(Math.round(source.getWidth() * scale), 1);
+        int height = Math.max(Math.round(source.getHeight() * scale), 1);
+        return Bitmap.createScaledBitmap(source, width, height, true);
+    }
+
+    /**
+     * 打开磁盘缓存，优先使用外部存储的缓存目录
+     * @param context
+     * @return 打开失败或者没有启用磁盘缓存时返回null，此时只使用内存缓存
+     */
+    private DiskLruCache getDiskCache(Context context) {
+        if (mDiskCacheSize <= 0){
+            return null;
+        }
+        if (mDiskCache == null){
+            synchronized (this){
+                if (mDiskCache == null){
+                    File cacheDir = null;
+                    if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())){
+                        cacheDir = context.getExternalCacheDir();
+                    }
+                    if (cacheDir == null){
+                        cacheDir = context.getCacheDir();
+                    }
+                    try {
+                        mDiskCache = DiskLruCache.open(new File(cacheDir, mDiskCacheDirName), mDiskCacheSize);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        return mDiskCache;
+    }
+
+    /**
+     * 磁盘缓存的key：路径 + 需求的宽高 + 文件的修改时间和大小 + 缓存格式版本，原图被修改后自然失效
+     * @param path
+     * @param imageSize 分档后的需求大小
+     * @param modified 原图的修改时间
+     * @param length 原图的大小
+     * @return
+     */
+    private String getDiskCacheKey(String path, ImageSize imageSize, long modified, long length) {
+        return DiskLruCache.hashKey(path + "_" + imageSize.width + "x" + imageSize.height + getSizeSuffix(imageSize)
+                + "_" + modified + "_" + length + "_v" + DISK_CACHE_VERSION);
+    }
+
+    /**
+     * 异步将压缩后的图片写入磁盘缓存
+     * @param diskCache
+     * @param key
+     * @param bm
+     */
+    private void addBitmapToDiskCache(final DiskLruCache diskCache, final String key, final Bitmap bm) {
+        if (diskCache == null || bm == null){
+            return;
+        }
+        //压缩完成之前bm不能被复用
+        retainBitmap(bm);
+        mDiskCacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    Bitmap.CompressFormat format = bm.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+                    if (bm.compress(format, 90, out)){
+                        diskCache.put(key, out.toByteArray());
+                    }
+                } finally {
+                    releaseBitmap(bm);
+                }
+            }
+        });
+    }
+
+    /**
+     * 记录原图加载时的状态，修改时间或大小变化时之前的记录作废
+     * @param path
+     * @param modified
+     * @param length
+     * @param diskKey 写入或命中的磁盘缓存key，没有时为null
+     */
+    private void recordSource(String path, long modified, long length, String diskKey) {
+        SourceRecord record = mSourceRecords.get(path);
+        if (record == null || record.modified != modified || record.length != length){
+            record = new SourceRecord(modified, length);
+            mSourceRecords.put(path, record);
+        }
+        if (diskKey != null){
+            record.addDiskKey(diskKey);
+        }
+    }
+
+    /**
+     * 根据图片需要显示的宽和高对图片进行压缩
+     * 文件只打开一次：解码边界时读到的文件头保存下来，完整解码时直接使用，读取的缓冲区按线程复用
+     * @param path
+     * @param width: 需求的宽，为0时不压缩
+     * @param height： 需求的高，为0时不压缩
+     * @param options 由任务持有，任务取消时通过它中断解码
+     * @param config 需求的Bitmap格式，为null时自动选择
+     * @param crop 见ImageSize.crop
+     * @param mustCover 为true时图片的宽高小于需求就不解码
+     * @return
+     */
+    private Bitmap decodeSampledBitmapFromPath(String path, int width, int height, BitmapFactory.Options options,
+                                               Bitmap.Config config, boolean crop, boolean mustCover) {
+        RewindableFileStream in;
+        try {
+            in = new RewindableFileStream(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        options.inTempStorage = RewindableFileStream.getTempStorage();
+        try {
+            //获得图片的宽和高，并不把图片加载到内存中
+            options.inJustDecodeBounds = true;
+            resetScaling(options);
+            BitmapFactory.decodeStream(in, null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0){
+                //不是图片，或者解码被取消
+                return null;
+            }
+            if (mustCover && (options.outWidth < width || options.outHeight < height)){
+                return null;
+            }
+
+            configureSampling(options, width, height, crop);
+
+            //使用获取到的InSampleSize再次解析图片，文件头太大没有保存下来时才重新打开文件
+            return decodeFileWithPool(path, in.rewind() ? in : null, options, config);
+        } finally {
+            options.inTempStorage = null;
+            try {
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 解码已经读入内存的图片
+     * @param data
+     * @param length 有效的字节数
+     * @param path 数据来自的文件，用来判断PNG是否有透明度，可以为null
+     * @param width 需求的宽，为0时不压缩
+     * @param height 需求的高，为0时不压缩
+     * @param options
+     * @param config 需求的Bitmap格式，为null时自动选择
+     * @param crop 见ImageSize.crop
+     * @return
+     */
+    private Bitmap decodeSampledBitmap(byte[] data, int length, String path, int width, int height,
+                                       BitmapFactory.Options options, Bitmap.Config config, boolean crop) {
+        options.inJustDecodeBounds = true;
+        resetScaling(options);
+        BitmapFactory.decodeByteArray(data, 0, length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0){
+            return null;
+        }
+        configureSampling(options, width, height, crop);
+        options.inTempStorage = RewindableFileStream.getTempStorage();
+        try {
+            return decodeFileWithPool(path, new ByteArrayInputStream(data, 0, length), options, config);
+        } finally {
+            options.inTempStorage = null;
+        }
+    }
+
+    /**
+     * 解码图片，尽量复用池中的Bitmap
+     * @param path
+     * @param in 已经回到开头的流，为null时从path重新打开
+     * @param options 已经包含图片的宽高、类型、inSampleSize和缩放的密度
+     * @param config 需求的Bitmap格式，为null时自动选择
+     * @return
+     */
+    private Bitmap decodeFileWithPool(String path, InputStream in, BitmapFactory.Options options, Bitmap.Config config) {
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = chooseConfig(config, path, options.outMimeType);
+        //解码出来的Bitmap必须是可变的，以后才能被复用
+        options.inMutable = true;
+
+        //按照不大于inSampleSize的2的幂和缩放比例估算解码后的大小，估算结果只会偏大
+        int sampleSize = Integer.highestOneBit(Math.max(options.inSampleSize, 1));
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        if (options.inDensity > 0 && options.inTargetDensity > 0){
+            float scale = (float) options.inTargetDensity / options.inDensity;
+            width = (int) (width * scale + 0.5f) + 1;
+            height = (int) (height * scale + 0.5f) + 1;
+        }
+        options.inBitmap = mBitmapPool.get(width, height, options.inPreferredConfig);
+
+        Bitmap bitmap = null;
+        try {
+            bitmap = in != null ? BitmapFactory.decodeStream(in, null, options) : BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            //复用的Bitmap不满足要求
+        }
+        if (bitmap == null && options.inBitmap != null){
+            mBitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            if (in != null && in.markSupported()){
+                //内存中的数据可以直接回到开头
+                try {
+                    in.reset();
+                    bitmap = BitmapFactory.decodeStream(in, null, options);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }else if (path != null){
+                //文件流已经被读过，只能重新打开文件
+                bitmap = BitmapFactory.decodeFile(path, options);
+            }
+        }
+        options.inBitmap = null;
+        if (bitmap != null && options.inDensity > 0){
+            //缩放用的密度只是比例，不是真正的屏幕密度，不能让BitmapDrawable按照它再缩放
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 选择解码使用的Bitmap格式，RGB_565占用的内存只有ARGB_8888的一半
+     * @param config 需求的格式，不为null时直接使用
+     * @param path
+     * @param mimeType 解码边界时得到的类型
+     * @return
+     */
+    private Bitmap.Config chooseConfig(Bitmap.Config config, String path, String mimeType) {
+        if (config != null){
+            return config;
+        }
+        if ("image/jpeg".equals(mimeType)){
+            return Bitmap.Config.RGB_565;
+        }
+        if ("image/png".equals(mimeType) && path != null && !DecodeUtils.pngHasAlpha(path)){
+            return Bitmap.Config.RGB_565;
+        }
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * centerCrop显示的区域：按照覆盖需求宽高的比例缩放后，居中裁出需求的宽高
+     * @param width 图片的宽
+     * @param height 图片的高
+     * @param reqWidth
+     * @param reqHeight
+     * @return 裁掉的部分不到1/REGION_DECODE_MIN_DISCARD时返回null，解码整张图片更合算
+     */
+    private Rect getCropRegion(int width, int height, int reqWidth, int reqHeight) {
+        if (width <= 0 || height <= 0 || reqWidth <= 0 || reqHeight <= 0){
+            return null;
+        }
+        float scale = DecodeUtils.getTargetScale(width, height, reqWidth, reqHeight, true);
+        int cropWidth = Math.min(Math.max(Math.round(reqWidth / scale), 1), width);
+        int cropHeight = Math.min(Math.max(Math.round(reqHeight / scale), 1), height);
+        if ((long) cropWidth * cropHeight * REGION_DECODE_MIN_DISCARD > (long) width * height * (REGION_DECODE_MIN_DISCARD - 1)){
+            return null;
+        }
+        int left = (width - cropWidth) / 2;
+        int top = (height - cropHeight) / 2;
+        return new Rect(left, top, left + cropWidth, top + cropHeight);
+    }
+
+    /**
+     * 用BitmapRegionDecoder只解码region，复用池中的Bitmap，
+     * 区域解码不支持inDensity缩放，2的幂采样之后剩下的比例再缩放一次
+     * @param data 读入内存的数据，为null时从path读取
+     * @param length
+     * @param path
+     * @param region
+     * @param width 缩放后的宽，宽高比和region相同
+     * @param height 缩放后的高
+     * @param options 已经包含图片的类型
+     * @param config 需求的Bitmap格式，为null时自动选择
+     * @return 格式不支持时返回null
+     */
+    private Bitmap decodeRegion(byte[] data, int length, String path, Rect region, int width, int height,
+                                BitmapFactory.Options options, Bitmap.Config config) {
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = data != null ? BitmapRegionDecoder.newInstance(data, 0, length, false)
+                    : BitmapRegionDecoder.newInstance(path, false);
+        } catch (IOException e) {
+            //BitmapRegionDecoder只支持JPEG、PNG和WebP
+            return null;
+        }
+        if (decoder == null){
+            return null;
+        }
+        try {
+            options.inJustDecodeBounds = false;
+            options.inPreferredConfig = chooseConfig(config, path, options.outMimeType);
+            options.inMutable = true;
+            int sampleSize = DecodeUtils.calculatePowerOfTwoSampleSize(region.width(), region.height(), width, height, true);
+            options.inSampleSize = sampleSize;
+            options.inBitmap = mBitmapPool.get((region.width() + sampleSize - 1) / sampleSize,
+                    (region.height() + sampleSize - 1) / sampleSize, options.inPreferredConfig);
+
+            Bitmap bitmap = null;
+            try {
+                bitmap = decoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                //复用的Bitmap不满足要求
+            }
+            if (bitmap == null && options.inBitmap != null){
+                mBitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+                bitmap = decoder.decodeRegion(region, options);
+            }
+            options.inBitmap = null;
+            if (bitmap == null || (bitmap.getWidth() <= width && bitmap.getHeight() <= height)){
+                return bitmap;
+            }
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+            if (scaled != bitmap){
+                mBitmapPool.put(bitmap);
+            }
+            return scaled;
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * 根据显示的宽高设置解码参数：inSampleSize取2的幂，解码器直接支持，
+     * 剩下的比例通过inDensity/inTargetDensity在解码时缩放，解码出的图片一边正好等于显示的大小，
+     * crop时另一边覆盖显示区域，只保留显示需要的分辨率
+     * @param options 已经解码过边界
+     * @param width 显示的宽，为0时不压缩
+     * @param height 显示的高，为0时不压缩
+     * @param crop 见ImageSize.crop
+     */
+    private void configureSampling(BitmapFactory.Options options, int width, int height, boolean crop) {
+        resetScaling(options);
+        if (width <= 0 || height <= 0){
+            options.inSampleSize = 1;
+            return;
+        }
+        int sampleSize = DecodeUtils.calculatePowerOfTwoSampleSize(options.outWidth, options.outHeight, width, height, crop);
+        options.inSampleSize = sampleSize;
+        int sampledWidth = (options.outWidth + sampleSize - 1) / sampleSize;
+        int sampledHeight = (options.outHeight + sampleSize - 1) / sampleSize;
+        //按照决定缩放比例的那一边精确缩放
+        float scaleX = (float) width / sampledWidth;
+        float scaleY = (float) height / sampledHeight;
+        boolean byWidth = crop ? scaleX >= scaleY : scaleX <= scaleY;
+        int density = byWidth ? sampledWidth : sampledHeight;
+        int targetDensity = byWidth ? width : height;
+        if (targetDensity < density){
+            options.inDensity = density;
+            options.inTargetDensity = targetDensity;
+            options.inScaled = true;
+        }
+    }
+
+    private void resetScaling(BitmapFactory.Options options) {
+        options.inDensity = 0;
+        options.inTargetDensity = 0;
+        options.inScreenDensity = 0;
+    }
+
+
+    /**
+     * 根据imageView获得适当的压缩的宽和高
+     * @param imageView
+     * @return
+     */
+    private ImageSize getImageViewSize(ImageView imageView) {
+
+        ImageSize imageSize = new ImageSize();
+
+        DisplayMetrics displayMetrics = imageView.getContext().getResources().getDisplayMetrics();
+        ViewGroup.LayoutParams lp = imageView.getLayoutParams();
+        int width = imageView.getWidth(); //获取imageView的实际宽度
+        if (width <= 0){
+
+            width = lp.width; //获取imageView在layout中声明的宽度
+        }
+        if (width <= 0){
+            width = imageView.getMaxWidth(); //检查最大值
+        }
+        if (width <= 0){
+            width = displayMetrics.widthPixels; //获取屏幕宽度
+        }
+
+        int height = imageView.getHeight(); //获取imageView的实际宽度
+        if (height <= 0){
+
+            height = lp.height; //获取imageView在layout中声明的宽度
+        }
+        if (height <= 0){
+            height = imageView.getMaxHeight(); //检查最大值
+        }
+        if (height <= 0){
+            height = displayMetrics.heightPixels; //获取屏幕宽度
+        }
+
+        imageSize.height = height;
+        imageSize.width = width;
+        //这几种方式把整张图片放进显示区域，其他方式图片要覆盖显示区域
+        ImageView.ScaleType scaleType = imageView.getScaleType();
+        imageSize.crop = scaleType != ImageView.ScaleType.FIT_CENTER && scaleType != ImageView.ScaleType.FIT_START
+                && scaleType != ImageView.ScaleType.FIT_END && scaleType != ImageView.ScaleType.CENTER_INSIDE;
+        imageSize.regionCrop = mRegionDecoding && scaleType == ImageView.ScaleType.CENTER_CROP;
+
+        return imageSize;
+    }
+
+    /**
+     * 按照EXIF方向旋转，旋转前的Bitmap还没有被任何地方使用，直接放入复用池
+     * @param bm
+     * @param orientation
+     * @return
+     */
+    private Bitmap applyOrientation(Bitmap bm, int orientation) {
+        if (bm == null){
+            return null;
+        }
+        Bitmap rotated = ThumbnailExtractor.rotate(bm, orientation);
+        if (rotated != bm){
+            mBitmapPool.put(bm);
+        }
+        return rotated;
+    }
+
+    /**
+     * 取一个长度不小于length的数组，优先从复用池中取（已经占用了预算）；
+     * 新分配时占用length的预算，不够时先丢弃池中空闲的数组，仍然不够时等待解码阶段归还
+     * @param length
+     * @return
+     * @throws InterruptedException
+     */
+    private byte[] acquireBuffer(int length) throws InterruptedException {
+        byte[] buffer = mByteArrayPool.get(length);
+        if (buffer != null){
+            return buffer;
+        }
+        while (!mReadBudget.tryAcquire(length)){
+            mReadBudget.release(mByteArrayPool.clear());
+            //归还的数组可能在等待期间又放回了池中，定时重新丢弃
+            if (mReadBudget.tryAcquire(length, BUDGET_RETRY_INTERVAL, TimeUnit.MILLISECONDS)){
+                break;
+            }
+        }
+        return new byte[length];
+    }
+
+    /**
+     * 把不再使用的数组放回复用池，放不下丢弃的部分归还预算
+     * @param buffer
+     */
+    private void releaseBuffer(byte[] buffer) {
+        mReadBudget.release(mByteArrayPool.put(buffer));
+    }
+
+    /**
+     * 提交任务，只是入队，不会阻塞调用线程，任务从读取阶段开始
+     * @param task
+     */
+    private void addTask(LoadTask task) {
+        task.toStage(STAGE_READ);
+    }
+
+    /**
+     * 一个加载任务，targets为等待结果的imageView，只在UI线程中修改
+     * 任务依次在读取、解码、后处理阶段的线程中执行，同一时间只在一个阶段的队列或线程中
+     */
+    private class LoadTask implements Runnable{
+        final String key;
+        final String path;
+        final ImageSize imageSize;
+        final Bitmap.Config config;
+        final Context context;
+        final List<ImageView> targets = new ArrayList<ImageView>(1);
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        final long enqueuedAt = System.nanoTime();
+        volatile boolean cancelled;
+        volatile Bitmap result;
+        /**
+         * basePriority 任务自身的优先级，预加载的任务为PREFETCH，其他任务为BACKGROUND，只在UI线程中修改
+         * priority 实际的优先级，见updatePriority，每个阶段都以它提交
+         * ticket、queuedIn 当前排队的Ticket和调度器，用来修改排队中的任务的优先级
+         * 这三个字段由任务本身的锁保护
+         */
+        int basePriority = TaskDispatcher.PRIORITY_BACKGROUND;
+        private int priority = TaskDispatcher.PRIORITY_VISIBLE;
+        private TaskDispatcher.Ticket ticket;
+        private TaskDispatcher queuedIn;
+        /**
+         * 渐进加载的预览任务，没有时为null，只在UI线程中修改
+         */
+        PreviewTask preview;
+
+        /**
+         * 以下字段在阶段之间传递，由调度器的队列保证可见性
+         * data 读入内存的数据，为null时解码阶段直接从sourcePath读取；budget为它占用的mReadBudget，即数组的长度
+         */
+        int stage = STAGE_READ;
+        int source;
+        Bitmap larger;
+        byte[] data;
+        int dataLength;
+        int budget;
+        String sourcePath;
+        int orientation = ExifInterface.ORIENTATION_NORMAL;
+        int reqWidth;
+        int reqHeight;
+        /**
+         * 原图旋转前的宽高，比较缩略图的宽高比时才读取，0表示还没有读取，-1表示读取失败
+         */
+        int sourceWidth;
+        int sourceHeight;
+        DiskLruCache diskCache;
+        String diskKey;
+        long sourceModified;
+        long sourceLength;
+        boolean diskCacheFailed;
+        Bitmap decoded;
+        /**
+         * diskCacheOnly 只读取磁盘缓存，见preloadFromDiskCache；diskCacheMissed 磁盘缓存没有命中，任务已经放弃
+         * 这两个字段由任务本身的锁保护
+         */
+        private boolean diskCacheOnly;
+        private boolean diskCacheMissed;
+
+        LoadTask(String key, String path, ImageSize imageSize, Bitmap.Config config, Context context){
+            this.key = key;
+            this.path = path;
+            this.imageSize = imageSize;
+            this.config = config;
+            this.context = context;
+        }
+
+        void cancel(){
+            cancelled = true;
+            //正在解码时中断解码
+            options.requestCancelDecode();
+            if (preview != null){
+                preview.options.requestCancelDecode();
+            }
+        }
+
+        /**
+         * 有imageView等待时，只读磁盘缓存的任务改为正常加载，在UI线程调用
+         * @return 磁盘缓存已经没有命中、任务已经放弃时返回false
+         */
+        synchronized boolean requireFullLoad(){
+            diskCacheOnly = false;
+            return !diskCacheMissed;
+        }
+
+        /**
+         * 修改优先级，正在排队时移到新的优先级，正在执行时从下一个阶段开始生效
+         * @param priority
+         */
+        synchronized void setPriority(int priority){
+            if (priority == this.priority){
+                return;
+            }
+            this.priority = priority;
+            if (ticket != null){
+                TaskDispatcher.Ticket moved = queuedIn.reprioritize(ticket, priority);
+                ticket = moved;
+            }
+        }
+
+        @Override
+        public void run() {
+            if (stage == STAGE_READ){
+                read();
+            }else if (stage == STAGE_DECODE){
+                decode();
+            }else{
+                postProcess();
+            }
+        }
+
+        /**
+         * 提交到下一个阶段
+         * @param next
+         */
+        private synchronized void toStage(int next) {
+            stage = next;
+            queuedIn = next == STAGE_READ ? mIoDispatcher
+                    : next == STAGE_DECODE ? mDispatcher : mPostDispatcher;
+            ticket = queuedIn.execute(this, priority);
+        }
+
+        /**
+         * 读取阶段：确定数据来源，把要解码的数据读入内存
+         */
+        private void read() {
+            if (cancelled){
+                return;
+            }
+            if (!diskCacheFailed){
+                if (mMetrics.isEnabled()){
+                    mMetrics.record(mMetrics.queueWait, System.nanoTime() - enqueuedAt);
+                }
+                mMetrics.trace(ImageLoaderMetrics.EVENT_STARTED, path, imageSize.width, imageSize.height);
+                //加载图片
+                //2. 缓存中有更大尺寸的图片时，在解码阶段直接缩小，不需要读取文件
+                ImageSize variant = findLargerVariant(path, imageSize);
+                if (variant != null){
+                    larger = getAndRetainFromLruCache(getCacheKey(path, variant));
+                    if (larger != null){
+                        mMetrics.increment(mMetrics.variantHits);
+                        source = SOURCE_VARIANT;
+                        toStage(STAGE_DECODE);
+                        return;
+                    }
+                }
+                //3. 从磁盘缓存中读取压缩过的图片
+                File original = new File(path);
+                sourceModified = original.lastModified();
+                sourceLength = original.length();
+                diskKey = getDiskCacheKey(path, imageSize, sourceModified, sourceLength);
+                diskCache = getDiskCache(context);
+                File file = diskCache != null ? diskCache.get(diskKey) : null;
+                if (file != null && readFile(file.getAbsolutePath())){
+                    source = SOURCE_DISK_CACHE;
+                    toStage(STAGE_DECODE);
+                    return;
+                }
+            }
+            if (cancelled || missDiskCache()){
+                return;
+            }
+            //4. 图片自带的缩略图足够大时直接使用，按照EXIF方向旋转后显示
+            ExifInterface exif = ThumbnailExtractor.readExif(path);
+            orientation = ThumbnailExtractor.getOrientation(exif);
+            boolean transposed = ThumbnailExtractor.isTransposed(orientation);
+            reqWidth = transposed ? imageSize.targetHeight : imageSize.targetWidth;
+            reqHeight = transposed ? imageSize.targetWidth : imageSize.targetHeight;
+            if (readThumbnail(exif)){
+                source = SOURCE_THUMBNAIL;
+                toStage(STAGE_DECODE);
+                return;
+            }
+            if (cancelled){
+                return;
+            }
+            //5. 读取原图，太大时解码阶段直接从文件读取
+            readFile(path);
+            source = SOURCE_ORIGINAL;
+            toStage(STAGE_DECODE);
+        }
+
+        /**
+         * 只读磁盘缓存的任务没有命中时放弃，发送空的结果让UI线程移除任务
+         * @return 是否放弃
+         */
+        private boolean missDiskCache() {
+            synchronized (this){
+                if (!diskCacheOnly){
+                    return false;
+                }
+                diskCacheMissed = true;
+            }
+            deliver(null);
+            return true;
+        }
+
+        /**
+         * 把文件整个读入内存，使用的数组按实际长度占用mReadBudget，用完时阻塞等待解码阶段释放
+         * @param file
+         * @return 文件太大或者读取失败时返回false，此时解码阶段直接从sourcePath读取
+         */
+        private boolean readFile(String file) {
+            sourcePath = file;
+            data = null;
+            long length = new File(file).length();
+            if (length <= 0 || length > mReadBudgetSize){
+                return false;
+            }
+            byte[] buffer;
+            try {
+                buffer = acquireBuffer((int) length);
+            } catch (InterruptedException e) {
+                //已经shutdown
+                cancelled = true;
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            int read = 0;
+            try {
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    while (read < length){
+                        int n = in.read(buffer, read, (int) length - read);
+                        if (n < 0){
+                            break;
+                        }
+                        read += n;
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                releaseBuffer(buffer);
+                return false;
+            }
+            data = buffer;
+            dataLength = read;
+            budget = buffer.length;
+            mMetrics.add(mMetrics.bytesRead, read);
+            return true;
+        }
+
+        /**
+         * 读取EXIF缩略图或者MediaStore已经生成的缩略图，宽高都不小于需求并且宽高比和原图相同时才使用
+         * @param exif
+         * @return
+         */
+        private boolean readThumbnail(ExifInterface exif) {
+            if (exif != null && exif.hasThumbnail()){
+                byte[] thumbnail = exif.getThumbnail();
+                if (thumbnail != null && covers(thumbnail, thumbnail.length, exif)){
+                    //EXIF缩略图很小，不占用mReadBudget
+                    data = thumbnail;
+                    dataLength = thumbnail.length;
+                    sourcePath = null;
+                    return true;
+                }
+            }
+            if (cancelled){
+                return false;
+            }
+            String thumbnail = ThumbnailExtractor.queryMediaStoreThumbnail(context, path);
+            if (thumbnail != null && readFile(thumbnail)){
+                if (covers(data, dataLength, exif)){
+                    return true;
+                }
+                releaseSource();
+            }
+            return false;
+        }
+
+        private boolean covers(byte[] bytes, int length, ExifInterface exif) {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(bytes, 0, length, options);
+            int width = options.outWidth;
+            int height = options.outHeight;
+            //缩略图缩放到显示大小时不需要放大才能使用
+            if (width <= 0 || height <= 0
+                    || DecodeUtils.getTargetScale(width, height, reqWidth, reqHeight, imageSize.crop) > 1){
+                return false;
+            }
+            //缩略图和原图都没有旋转，直接比较
+            if (!readSourceSize(exif)){
+                return false;
+            }
+            float ratio = (float) width * sourceHeight / ((float) height * sourceWidth);
+            return ratio >= 1 - MAX_THUMBNAIL_ASPECT_DIFF && ratio <= 1 + MAX_THUMBNAIL_ASPECT_DIFF;
+        }
+
+        /**
+         * 读取原图旋转前的宽高，优先使用EXIF中记录的，没有时解码原图的边界，同一个任务只读取一次
+         * @param exif 可以为null
+         * @return 读取失败时返回false
+         */
+        private boolean readSourceSize(ExifInterface exif) {
+            if (sourceWidth == 0){
+                if (exif != null){
+                    sourceWidth = exif.getAttributeInt(ExifInterface.TAG_IMAGE_WIDTH, 0);
+                    sourceHeight = exif.getAttributeInt(ExifInterface.TAG_IMAGE_LENGTH, 0);
+                }
+                if (sourceWidth <= 0 || sourceHeight <= 0){
+                    options.inJustDecodeBounds = true;
+                    BitmapFactory.decodeFile(path, options);
+                    sourceWidth = options.outWidth > 0 ? options.outWidth : -1;
+                    sourceHeight = options.outHeight > 0 ? options.outHeight : -1;
+                }
+            }
+            return sourceWidth > 0 && sourceHeight > 0;
+        }
+
+        /**
+         * 解码阶段：只做CPU计算
+         */
+        private void decode() {
+            if (cancelled){
+                releaseSource();
+                return;
+            }
+            //关闭统计时不计时
+            long start = mMetrics.isEnabled() ? System.nanoTime() : 0;
+            Bitmap bm;
+            if (source == SOURCE_VARIANT){
+                bm = scaleBitmap(larger, imageSize);
+                Bitmap source = larger;
+                larger = null;
+                if (bm == null){
+                    //大尺寸的图片本身就不比需求大，直接使用
+                    deliver(source);
+                    return;
+                }
+                releaseBitmap(source);
+            }else if (source == SOURCE_DISK_CACHE){
+                bm = decodeSource(0, 0);
+                if (bm == null){
+                    //文件已损坏，回到读取阶段，跳过磁盘缓存
+                    diskCache.remove(diskKey);
+                    if (!cancelled){
+                        diskCacheFailed = true;
+                        toStage(STAGE_READ);
+                    }
+                    return;
+                }
+                recordDiskHit(start);
+            }else if (source == SOURCE_THUMBNAIL){
+                bm = decodeSource(reqWidth, reqHeight);
+                if (bm != null){
+                    recordThumbnail(start);
+                }
+            }else{
+                bm = imageSize.regionCrop ? decodeSourceRegion(reqWidth, reqHeight) : null;
+                if (bm == null){
+                    bm = decodeSource(reqWidth, reqHeight);
+                }
+                recordDecode(bm, start);
+            }
+            if (bm == null){
+                deliver(null);
+                return;
+            }
+            decoded = bm;
+            //后处理处理不过来时在这里等待
+            try {
+                mPostSlots.acquire();
+            } catch (InterruptedException e) {
+                //已经shutdown，解码的结果还没有加入缓存，直接放入复用池，发送空的结果让UI线程移除任务
+                decoded = null;
+                mBitmapPool.put(bm);
+                deliver(null);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            toStage(STAGE_POST);
+        }
+
+        private Bitmap decodeSource(int width, int height) {
+            try {
+                if (data != null){
+                    return decodeSampledBitmap(data, dataLength, sourcePath, width, height, options, config, imageSize.crop);
+                }
+                if (mMetrics.isEnabled()){
+                    mMetrics.add(mMetrics.bytesRead, new File(sourcePath).length());
+                }
+                return decodeSampledBitmapFromPath(sourcePath, width, height, options, config, imageSize.crop, false);
+            } finally {
+                releaseSource();
+            }
+        }
+
+        /**
+         * 只解码centerCrop显示的区域，旋转之前的宽高比和需求的宽高（已经按照方向交换过）相同
+         * @param width
+         * @param height
+         * @return 裁掉的部分太少或者格式不支持按区域解码时返回null，不释放数据，由decodeSource解码整张图片
+         */
+        private Bitmap decodeSourceRegion(int width, int height) {
+            options.inJustDecodeBounds = true;
+            resetScaling(options);
+            if (data != null){
+                BitmapFactory.decodeByteArray(data, 0, dataLength, options);
+            }else{
+                BitmapFactory.decodeFile(sourcePath, options);
+            }
+            Rect region = getCropRegion(options.outWidth, options.outHeight, width, height);
+            if (region == null){
+                return null;
+            }
+            if (data == null && mMetrics.isEnabled()){
+                mMetrics.add(mMetrics.bytesRead, new File(sourcePath).length());
+            }
+            Bitmap bm = decodeRegion(data, dataLength, sourcePath, region, width, height, options, config);
+            if (bm != null){
+                releaseSource();
+            }
+            return bm;
+        }
+
+        /**
+         * 释放读入内存的数据占用的预算，以及还没有使用的大尺寸图片
+         */
+        private void releaseSource() {
+            if (budget > 0){
+                releaseBuffer(data);
+                budget = 0;
+            }
+            data = null;
+            if (larger != null){
+                releaseBitmap(larger);
+                larger = null;
+            }
+        }
+
+        /**
+         * 后处理阶段：旋转、加入缓存并发送到UI线程
+         */
+        private void postProcess() {
+            try {
+                Bitmap bm = decoded;
+                decoded = null;
+                if (source == SOURCE_THUMBNAIL || source == SOURCE_ORIGINAL){
+                    bm = applyOrientation(bm, orientation);
+                }
+                if (source == SOURCE_ORIGINAL){
+                    //异步写入磁盘缓存
+                    addBitmapToDiskCache(diskCache, diskKey, bm);
+                }
+                if (source != SOURCE_VARIANT && bm != null && diskKey != null){
+                    recordSource(path, sourceModified, sourceLength,
+                            source == SOURCE_DISK_CACHE || source == SOURCE_ORIGINAL ? diskKey : null);
+                }
+                //6. 把图片加入到缓存，分发完成之前不能被复用
+                retainBitmap(bm);
+                addBitmapToLruCache(path, imageSize, bm);
+                deliver(bm);
+            } finally {
+                mPostSlots.release();
+            }
+        }
+
+        /**
+         * 统计关闭时不计时也不计数，跟踪事件只取决于有没有设置TraceListener
+         * @param start 解码开始的时间，统计关闭时为0
+         */
+        private void recordDiskHit(long start) {
+            if (mMetrics.isEnabled()){
+                mMetrics.record(mMetrics.diskReadTime, System.nanoTime() - start);
+                mMetrics.increment(mMetrics.diskHits);
+            }
+            mMetrics.trace(ImageLoaderMetrics.EVENT_DISK_HIT, path, imageSize.width, imageSize.height);
+        }
+
+        private void recordThumbnail(long start) {
+            if (mMetrics.isEnabled()){
+                mMetrics.record(mMetrics.thumbnailTime, System.nanoTime() - start);
+                mMetrics.increment(mMetrics.thumbnailHits);
+            }
+            mMetrics.trace(ImageLoaderMetrics.EVENT_THUMBNAIL_HIT, path, imageSize.width, imageSize.height);
+        }
+
+        private void recordDecode(Bitmap bm, long start) {
+            if (bm == null){
+                if (!cancelled){
+                    mMetrics.increment(mMetrics.decodeFailures);
+                }
+                return;
+            }
+            if (mMetrics.isEnabled()){
+                mMetrics.record(mMetrics.decodeTime, System.nanoTime() - start);
+                mMetrics.increment(mMetrics.decodes);
+            }
+            mMetrics.trace(ImageLoaderMetrics.EVENT_DECODED, path, imageSize.width, imageSize.height);
+        }
+
+        /**
+         * 把已经retain的结果发送到UI线程
+         * @param bm
+         */
+        private void deliver(Bitmap bm) {
+            //7. 回调
+            if (cancelled){
+                releaseBitmap(bm);
+            }else{
+                result = bm;
+                postDelivery(this);
+            }
+        }
+    }
+
+    /**
+     * ImageLoader的配置，没有设置的项使用默认值：
+     * 读取线程2个，解码线程数为CPU核数，后处理线程为解码线程的一半，读入内存的数据最多16M，
+     * 内存缓存为可用内存的1/8，复用池为内存缓存的一半，不使用堆外缓存，磁盘缓存50M，LIFO调度，自动选择Bitmap格式，不使用渐进加载，不按区域解码
+     */
+    public static class Builder{
+        private Context mContext;
+        private int mThreadCount = Runtime.getRuntime().availableProcessors();
+        private int mIoThreadCount = 2;
+        private int mPostThreadCount = -1;
+        private int mReadBudget = -1;
+        private int mMemoryCacheSize = -1;
+        private float mMemoryCacheFraction = 1f / 8;
+        private int mBitmapPoolSize = -1;
+        private int mOffHeapCacheSize;
+        private long mDiskCacheSize = DEFAULT_DISK_CACHE_SIZE;
+        private String mDiskCacheDirName = DISK_CACHE_DIR;
+        private Type mType = Type.LIFO;
+        private Bitmap.Config mBitmapConfig;
+        private boolean mProgressive;
+        private boolean mRegionDecoding;
+
+        public Builder(){
+        }
+
+        /**
+         * @param context 用来获取应用的memory class，内存缓存按照它的比例计算
+         */
+        public Builder(Context context){
+            mContext = context.getApplicationContext();
+        }
+
+        /**
+         * 解码线程数
+         * @param threadCount 不大于0时使用CPU核数
+         * @return
+         */
+        public Builder setThreadCount(int threadCount){
+            if (threadCount > 0){
+                mThreadCount = threadCount;
+            }
+            return this;
+        }
+
+        /**
+         * 读取阶段的线程数，负责查询缓存、读取文件到内存
+         * @param ioThreadCount
+         * @return
+         */
+        public Builder setIoThreadCount(int ioThreadCount){
+            if (ioThreadCount > 0){
+                mIoThreadCount = ioThreadCount;
+            }
+            return this;
+        }
+
+        /**
+         * 后处理阶段的线程数，负责旋转、写入缓存
+         * @param postThreadCount 不大于0时为解码线程数的一半
+         * @return
+         */
+        public Builder setPostThreadCount(int postThreadCount){
+            mPostThreadCount = postThreadCount;
+            return this;
+        }
+
+        /**
+         * 读取阶段最多可以读入内存、等待解码的字节数，用完时读取线程等待解码阶段
+         * @param bytes 不大于0时为16M和最大可用内存1/16中较小的
+         * @return
+         */
+        public Builder setReadBudget(int bytes){
+            mReadBudget = bytes;
+            return this;
+        }
+
+        /**
+         * 内存缓存的字节数，设置后忽略setMemoryCacheFraction
+         * @param bytes
+         * @return
+         */
+        public Builder setMemoryCacheSize(int bytes){
+            mMemoryCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * 内存缓存占memory class（没有Context时为最大可用内存）的比例
+         * @param fraction
+         * @return
+         */
+        public Builder setMemoryCacheFraction(float fraction){
+            mMemoryCacheFraction = fraction;
+            mMemoryCacheSize = -1;
+            return this;
+        }
+
+        /**
+         * Bitmap复用池的字节数，为0时不复用
+         * @param bytes
+         * @return
+         */
+        public Builder setBitmapPoolSize(int bytes){
+            mBitmapPoolSize = bytes;
+            return this;
+        }
+
+        /**
+         * 堆外缓存的字节数，LruCache淘汰的小图保存在Java堆之外，再次显示时不需要解码
+         * 第一次有图片被淘汰时才分配，为0时不使用
+         * @param bytes
+         * @return
+         */
+        public Builder setOffHeapCacheSize(int bytes){
+            mOffHeapCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * 磁盘缓存的字节数，为0时不使用磁盘缓存
+         * @param bytes
+         * @return
+         */
+        public Builder setDiskCacheSize(long bytes){
+            mDiskCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * 磁盘缓存在缓存目录下的文件夹名，同时存在的多个实例不能使用同一个文件夹
+         * @param name
+         * @return
+         */
+        public Builder setDiskCacheDirName(String name){
+            mDiskCacheDirName = name;
+            return this;
+        }
+
+        public Builder setType(Type type){
+            if (type != null){
+                mType = type;
+            }
+            return this;
+        }
+
+        /**
+         * 解码使用的Bitmap格式
+         * @param config 为null时自动选择：不透明的图片用RGB_565，有透明度的用ARGB_8888
+         * @return
+         */
+        public Builder setBitmapConfig(Bitmap.Config config){
+            mBitmapConfig = config;
+            return this;
+        }
+
+        /**
+         * loadImage(path, imageView)是否默认使用渐进加载
+         * @param progressive
+         * @return
+         */
+        public Builder setProgressive(boolean progressive){
+            mProgressive = progressive;
+            return this;
+        }
+
+        /**
+         * centerCrop的imageView显示宽高比相差很大的图片（全景图、长截图）时，是否只解码显示的区域
+         * @param regionDecoding
+         * @return
+         */
+        public Builder setRegionDecoding(boolean regionDecoding){
+            mRegionDecoding = regionDecoding;
+            return this;
+        }
+
+        public ImageLoader build(){
+            return new ImageLoader(this);
+        }
+
+        private int getPostThreadCount(){
+            return mPostThreadCount > 0 ? mPostThreadCount : Math.max(1, mThreadCount / 2);
+        }
+
+        private int getReadBudget(){
+            if (mReadBudget > 0){
+                return mReadBudget;
+            }
+            return (int) Math.min(DEFAULT_READ_BUDGET, Runtime.getRuntime().maxMemory() / 16);
+        }
+
+        private int getMemoryCacheSize(){
+            if (mMemoryCacheSize > 0){
+                return mMemoryCacheSize;
+            }
+            //获取我们应用的最大可用内存
+            long maxMemory = Runtime.getRuntime().maxMemory();
+            if (mContext != null){
+                ActivityManager am = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+                if (am != null && am.getMemoryClass() > 0){
+                    maxMemory = Math.min(maxMemory, am.getMemoryClass() * 1024L * 1024L);
+                }
+            }
+            return Math.max((int) (maxMemory * mMemoryCacheFraction), 1);
+        }
+    }
+
+    /**
+     * 渐进加载的预览任务：解码一张很小的图片，在完整的图片完成之前先显示
+     * 只使用EXIF缩略图或者MediaStore已经生成的缩略图，没有时不做预览，原图不会被多读、多解码一遍
+     * 和LoadTask一样分阶段：在mIoDispatcher中读取缩略图，在mDispatcher中解码，两个阶段都以高优先级执行
+     */
+    private class PreviewTask implements Runnable{
+        final LoadTask task;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        final int width;
+        final int height;
+        Bitmap result;
+
+        /**
+         * 以下字段在阶段之间传递，由调度器的队列保证可见性
+         * data 读取到的缩略图，orientation 原图的EXIF方向
+         */
+        private int stage = STAGE_READ;
+        private byte[] data;
+        private int orientation = ExifInterface.ORIENTATION_NORMAL;
+
+        PreviewTask(LoadTask task){
+            this.task = task;
+            width = Math.max(task.imageSize.targetWidth / PREVIEW_DIVISOR, 1);
+            height = Math.max(task.imageSize.targetHeight / PREVIEW_DIVISOR, 1);
+        }
+
+        @Override
+        public void run() {
+            //完整的图片已经完成或者取消，不需要预览
+            if (task.cancelled || task.result != null){
+                data = null;
+                return;
+            }
+            if (stage == STAGE_READ){
+                read();
+            }else{
+                decode();
+            }
+        }
+
+        private void read() {
+            ExifInterface exif = ThumbnailExtractor.readExif(task.path);
+            orientation = ThumbnailExtractor.getOrientation(exif);
+            if (exif != null && exif.hasThumbnail()){
+                data = exif.getThumbnail();
+            }
+            if (data == null && !task.cancelled){
+                data = ThumbnailExtractor.readMediaStoreThumbnail(task.context, task.path, MAX_PREVIEW_SOURCE_SIZE);
+            }
+            if (data == null){
+                return;
+            }
+            stage = STAGE_DECODE;
+            mDispatcher.executeHighPriority(this);
+        }
+
+        private void decode() {
+            boolean transposed = ThumbnailExtractor.isTransposed(orientation);
+            int reqWidth = transposed ? height : width;
+            int reqHeight = transposed ? width : height;
+            //缩略图不管多大都可以作为预览
+            options.inPreferredConfig = chooseConfig(task.config, null, "image/jpeg");
+            Bitmap bm = applyOrientation(ThumbnailExtractor.decodeThumbnail(data, reqWidth, reqHeight, false, options),
+                    orientation);
+            data = null;
+            if (bm == null){
+                return;
+            }
+            if (task.cancelled || task.result != null){
+                mBitmapPool.put(bm);
+                return;
+            }
+            result = bm;
+            postDelivery(this);
+        }
+    }
+
+    /**
+     * 一张原图加载时的修改时间和大小，以及它在磁盘缓存中的各个尺寸的key
+     */
+    private static class SourceRecord{
+        final long modified;
+        final long length;
+        private final List<String> diskKeys = new ArrayList<String>(1);
+
+        SourceRecord(long modified, long length){
+            this.modified = modified;
+            this.length = length;
+        }
+
+        synchronized void addDiskKey(String diskKey){
+            if (!diskKeys.contains(diskKey)){
+                diskKeys.add(diskKey);
+            }
+        }
+
+        synchronized List<String> getDiskKeys(){
+            return new ArrayList<String>(diskKeys);
+        }
+    }
+
+    /**
+     * width、height 分档后的需求大小，用于缓存的key
+     * targetWidth、targetHeight imageView实际的显示大小，解码时精确缩放到这个大小
+     * crop 为true时（centerCrop、fitXY等）图片要覆盖显示区域，为false时（fitCenter、centerInside）放进显示区域
+     * regionCrop 为true时（centerCrop）图片比显示区域长很多的只解码显示的中间部分，缓存的图片只能用于centerCrop
+     */
     private class ImageSize{
 
         int width;
         int height;
+        int targetWidth;
+        int targetHeight;
+        boolean crop = true;
+        boolean regionCrop;
     }
 }
@@ -0,0 +1,229 @@
+package imooc.com.imooc_imageloader.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ImageLoader的运行时统计：各级缓存的命中、解码次数和耗时、读取的字节数、排队时间、被丢弃的结果等
+ * 关闭时每个统计点只有一次volatile读；打开时只有原子加法，可以在正式版本中一直打开
+ */
+public class ImageLoaderMetrics {
+
+    /**
+     * 单个请求的跟踪事件，在事件发生的线程中回调，实现中不要做耗时操作
+     */
+    public interface TraceListener {
+        /**
+         * @param event EVENT_开头的常量
+         * @param path 图片路径
+         * @param width 需求的宽（分档后）
+         * @param height 需求的高（分档后）
+         * @param timeNanos System.nanoTime()
+         */
+        void onTraceEvent(int event, String path, int width, int height, long timeNanos);
+    }
+
+    public static final int EVENT_ENQUEUED = 1;
+    public static final int EVENT_STARTED = 2;
+    public static final int EVENT_MEMORY_HIT = 3;
+    public static final int EVENT_DISK_HIT = 4;
+    public static final int EVENT_DECODED = 5;
+    public static final int EVENT_DELIVERED = 6;
+    public static final int EVENT_CANCELLED = 7;
+    public static final int EVENT_DROPPED = 8;
+    public static final int EVENT_THUMBNAIL_HIT = 9;
+    public static final int EVENT_PREVIEW = 10;
+
+    private volatile boolean mEnabled = true;
+    private volatile TraceListener mTraceListener;
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong memoryHits = new AtomicLong();
+    final AtomicLong variantHits = new AtomicLong();
+    final AtomicLong offHeapHits = new AtomicLong();
+    final AtomicLong diskHits = new AtomicLong();
+    final AtomicLong thumbnailHits = new AtomicLong();
+    final AtomicLong decodes = new AtomicLong();
+    final AtomicLong decodeFailures = new AtomicLong();
+    final AtomicLong bytesRead = new AtomicLong();
+    final AtomicLong cancelled = new AtomicLong();
+    final AtomicLong droppedResults = new AtomicLong();
+    final AtomicLong evictions = new AtomicLong();
+
+    final LatencyHistogram queueWait = new LatencyHistogram();
+    final LatencyHistogram decodeTime = new LatencyHistogram();
+    final LatencyHistogram diskReadTime = new LatencyHistogram();
+    final LatencyHistogram thumbnailTime = new LatencyHistogram();
+    /**
+     * 缓存未命中的loadImage从请求到图片设置给imageView的时间，不包括预加载的任务
+     */
+    final LatencyHistogram timeToVisible = new LatencyHistogram();
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * 关闭后不再计数和计时，跟踪事件不受影响，只取决于有没有设置TraceListener
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public void setTraceListener(TraceListener listener) {
+        mTraceListener = listener;
+    }
+
+    void increment(AtomicLong counter) {
+        if (mEnabled) {
+            counter.incrementAndGet();
+        }
+    }
+
+    void add(AtomicLong counter, long delta) {
+        if (mEnabled) {
+            counter.addAndGet(delta);
+        }
+    }
+
+    void record(LatencyHistogram histogram, long nanos) {
+        if (mEnabled) {
+            histogram.record(nanos);
+        }
+    }
+
+    /**
+     * 没有设置TraceListener时不会计算时间
+     */
+    void trace(int event, String path, int width, int height) {
+        TraceListener listener = mTraceListener;
+        if (listener != null) {
+            listener.onTraceEvent(event, path, width, height, System.nanoTime());
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getMemoryHitCount() {
+        return memoryHits.get();
+    }
+
+    /**
+     * 用缓存中其他尺寸满足的请求数
+     */
+    public long getVariantHitCount() {
+        return variantHits.get();
+    }
+
+    /**
+     * 从堆外缓存恢复的请求数
+     */
+    public long getOffHeapHitCount() {
+        return offHeapHits.get();
+    }
+
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    /**
+     * 用EXIF或MediaStore缩略图满足、不需要解码原图的请求数
+     */
+    public long getThumbnailHitCount() {
+        return thumbnailHits.get();
+    }
+
+    public long getDecodeCount() {
+        return decodes.get();
+    }
+
+    public long getDecodeFailureCount() {
+        return decodeFailures.get();
+    }
+
+    /**
+     * 解码原图和读取磁盘缓存读取的字节数
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    /**
+     * 加载完成时imageView已经被复用来显示别的图片，结果被丢弃的次数
+     */
+    public long getDroppedResultCount() {
+        return droppedResults.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * 内存缓存的命中率（包括用其他尺寸满足的）
+     */
+    public float getMemoryHitRatio() {
+        long total = requests.get();
+        return total == 0 ? 0 : (float) (memoryHits.get() + variantHits.get()) / total;
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public LatencyHistogram getDecodeTime() {
+        return decodeTime;
+    }
+
+    public LatencyHistogram getDiskReadTime() {
+        return diskReadTime;
+    }
+
+    public LatencyHistogram getThumbnailTime() {
+        return thumbnailTime;
+    }
+
+    public LatencyHistogram getTimeToVisible() {
+        return timeToVisible;
+    }
+
+    public void reset() {
+        AtomicLong[] counters = {requests, memoryHits, variantHits, offHeapHits, diskHits, thumbnailHits, decodes, decodeFailures,
+                bytesRead, cancelled, droppedResults, evictions};
+        for (AtomicLong counter : counters) {
+            counter.set(0);
+        }
+        queueWait.reset();
+        decodeTime.reset();
+        diskReadTime.reset();
+        thumbnailTime.reset();
+        timeToVisible.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + requests.get()
+                + " memoryHits=" + memoryHits.get()
+                + " variantHits=" + variantHits.get()
+                + " offHeapHits=" + offHeapHits.get()
+                + " diskHits=" + diskHits.get()
+                + " thumbnailHits=" + thumbnailHits.get()
+                + " decodes=" + decodes.get()
+                + " decodeFailures=" + decodeFailures.get()
+                + " bytesRead=" + bytesRead.get()
+                + " cancelled=" + cancelled.get()
+                + " dropped=" + droppedResults.get()
+                + " evictions=" + evictions.get()
+                + "\nqueueWait: " + queueWait
+                + "\ndecodeTime: " + decodeTime
+                + "\ndiskReadTime: " + diskReadTime
+                + "\nthumbnailTime: " + thumbnailTime
+                + "\ntimeToVisible: " + timeToVisible;
+    }
+}
@@ -0,0 +1,66 @@
+package imooc.com.imooc_imageloader.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的延迟直方图，按微秒的2的幂分桶，记录只有一次原子加法
+ * 分位数是近似值（桶的上界），足够用来调整线程数和缓存大小
+ */
+public class LatencyHistogram {
+
+    /**
+     * 第i个桶记录[2^(i-1), 2^i)微秒，最后一个桶记录更大的值
+     */
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * @param nanos
+     */
+    public void record(long nanos) {
+        long micros = Math.max(nanos / 1000, 0);
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        mCounts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += mCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile 0-100
+     * @return 分位数所在桶的上界，单位微秒
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(percentile / 100.0 * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= target) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " p50<=" + getPercentileMicros(50) + "us p90<=" + getPercentileMicros(90)
+                + "us p99<=" + getPercentileMicros(99) + "us";
+    }
+}
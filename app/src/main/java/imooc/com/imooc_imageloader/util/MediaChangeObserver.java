@@ -0,0 +1,293 @@
+package imooc.com.imooc_imageloader.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 图片变化的通知：MediaStore的ContentObserver覆盖所有文件夹，正在显示的文件夹再加一个FileObserver，
+ * 覆盖还没有被MediaStore扫描到的文件
+ * 变化先在后台线程中累积，安静BATCH_DELAY之后（一直有变化时最多等MAX_BATCH_DELAY）合并成一批，
+ * 查询出受影响的文件和文件夹后一次回调，连拍产生的几十个通知只回调一次
+ * 除了回调之外的方法都在UI线程调用
+ */
+public class MediaChangeObserver {
+
+    /**
+     * 一批变化，不会再改变，可以在任意线程中使用
+     */
+    public static final class Changes {
+        private final Set<String> mPaths;
+        private final Set<String> mDirs;
+        private final boolean mUnresolved;
+
+        Changes(Set<String> paths, Set<String> dirs, boolean unresolved) {
+            mPaths = Collections.unmodifiableSet(paths);
+            mDirs = Collections.unmodifiableSet(dirs);
+            mUnresolved = unresolved;
+        }
+
+        /**
+         * @return 新增、删除、修改、移入或移出的文件的完整路径
+         */
+        public Set<String> getPaths() {
+            return mPaths;
+        }
+
+        /**
+         * @return 受影响的文件夹的完整路径
+         */
+        public Set<String> getDirs() {
+            return mDirs;
+        }
+
+        /**
+         * @return 是否有不知道在哪个文件夹的变化，比如MediaStore中已经删除的图片，或者没有具体uri的通知
+         */
+        public boolean isUnresolved() {
+            return mUnresolved;
+        }
+    }
+
+    public interface OnChangeListener {
+        /**
+         * 在后台线程中回调，同一时间只有一次
+         * @param changes
+         */
+        void onChange(Changes changes);
+    }
+
+    /**
+     * 最后一个变化之后等待这么久没有新的变化才回调
+     */
+    private static final long BATCH_DELAY = 300;
+
+    /**
+     * 第一个变化之后最多等待这么久，一直有变化时也按时回调
+     */
+    private static final long MAX_BATCH_DELAY = 1500;
+
+    /**
+     * 一次查询的id数，SQLite的参数个数有上限
+     */
+    private static final int MAX_IDS_PER_QUERY = 500;
+
+    private static final int FILE_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.DELETE
+            | FileObserver.MOVED_FROM | FileObserver.MOVED_TO;
+
+    private Context mContext;
+    private OnChangeListener mListener;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private ContentObserver mContentObserver;
+    private FileObserver mFileObserver;
+
+    /**
+     * 还没有回调的变化，只在mThread中使用
+     * mPendingIds MediaStore通知中的图片id
+     * mPendingPaths FileObserver通知的文件
+     * mFirstChangeAt 这一批中第一个变化的时间，没有变化时为0
+     */
+    private Set<Long> mPendingIds = new HashSet<Long>();
+    private Set<String> mPendingPaths = new HashSet<String>();
+    private boolean mPendingUnresolved;
+    private long mFirstChangeAt;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public MediaChangeObserver(Context context, OnChangeListener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+    }
+
+    /**
+     * 开始监听MediaStore
+     */
+    public void start() {
+        mThread = new HandlerThread("MediaChangeObserver");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mContentObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onMediaChanged(uri);
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                true, mContentObserver);
+    }
+
+    /**
+     * 监听正在显示的文件夹，之前监听的文件夹不再监听
+     * @param dir 文件夹的完整路径
+     */
+    public void watchDir(final String dir) {
+        if (mFileObserver != null) {
+            mFileObserver.stopWatching();
+        }
+        //FileObserver被回收后就不再通知，由字段持有
+        mFileObserver = new FileObserver(dir, FILE_EVENTS) {
+            @Override
+            public void onEvent(int event, final String name) {
+                if (name == null || (event & FILE_EVENTS) == 0) {
+                    return;
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFileChanged(dir + "/" + name);
+                    }
+                });
+            }
+        };
+        mFileObserver.startWatching();
+    }
+
+    /**
+     * 停止监听，之后不会再回调
+     */
+    public void stop() {
+        if (mFileObserver != null) {
+            mFileObserver.stopWatching();
+            mFileObserver = null;
+        }
+        if (mContentObserver != null) {
+            mContext.getContentResolver().unregisterContentObserver(mContentObserver);
+            mContentObserver = null;
+        }
+        if (mThread != null) {
+            mHandler.removeCallbacks(mFlush);
+            mThread.quit();
+            mThread = null;
+        }
+    }
+
+    private void onMediaChanged(Uri uri) {
+        long id = uri != null ? parseId(uri.getLastPathSegment()) : -1;
+        if (id > 0) {
+            mPendingIds.add(id);
+        } else {
+            //整个表的通知，比如批量删除
+            mPendingUnresolved = true;
+        }
+        scheduleFlush();
+    }
+
+    private void onFileChanged(String path) {
+        mPendingPaths.add(path);
+        scheduleFlush();
+    }
+
+    /**
+     * 每个变化都把回调推迟到BATCH_DELAY之后，但不晚于第一个变化之后的MAX_BATCH_DELAY
+     */
+    private void scheduleFlush() {
+        long now = SystemClock.uptimeMillis();
+        if (mFirstChangeAt == 0) {
+            mFirstChangeAt = now;
+        }
+        long delay = Math.min(BATCH_DELAY, mFirstChangeAt + MAX_BATCH_DELAY - now);
+        mHandler.removeCallbacks(mFlush);
+        mHandler.postDelayed(mFlush, Math.max(delay, 0));
+    }
+
+    private void flush() {
+        Set<String> paths = mPendingPaths;
+        Set<Long> ids = mPendingIds;
+        boolean unresolved = mPendingUnresolved;
+        mPendingPaths = new HashSet<String>();
+        mPendingIds = new HashSet<Long>();
+        mPendingUnresolved = false;
+        mFirstChangeAt = 0;
+
+        //查询不到的id已经从MediaStore中删除了
+        if (!ids.isEmpty() && resolveIds(ids, paths) < ids.size()) {
+            unresolved = true;
+        }
+        Set<String> dirs = new HashSet<String>();
+        for (String path : paths) {
+            String dir = new File(path).getParent();
+            if (dir != null) {
+                dirs.add(dir);
+            }
+        }
+        mListener.onChange(new Changes(paths, dirs, unresolved));
+    }
+
+    /**
+     * 按id查询MediaStore中图片的路径
+     * @param ids
+     * @param paths 查询到的路径加入其中
+     * @return 查询到的图片数，查询失败时为0
+     */
+    private int resolveIds(Set<Long> ids, Set<String> paths) {
+        ContentResolver cr = mContext.getContentResolver();
+        Long[] all = ids.toArray(new Long[ids.size()]);
+        int found = 0;
+        for (int start = 0; start < all.length; start += MAX_IDS_PER_QUERY) {
+            int end = Math.min(start + MAX_IDS_PER_QUERY, all.length);
+            StringBuilder selection = new StringBuilder(MediaStore.Images.Media._ID).append(" IN (");
+            String[] args = new String[end - start];
+            for (int i = start; i < end; i++) {
+                selection.append(i == start ? "?" : ",?");
+                args[i - start] = String.valueOf(all[i]);
+            }
+            selection.append(")");
+            Cursor cursor = null;
+            try {
+                cursor = cr.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                        new String[]{MediaStore.Images.Media.DATA}, selection.toString(), args, null);
+                if (cursor == null) {
+                    continue;
+                }
+                while (cursor.moveToNext()) {
+                    String path = cursor.getString(0);
+                    if (path != null) {
+                        paths.add(path);
+                    }
+                    found++;
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        return found;
+    }
+
+    private static long parseId(String segment) {
+        if (segment == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(segment);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
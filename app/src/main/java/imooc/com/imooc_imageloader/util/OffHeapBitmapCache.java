@@ -0,0 +1,304 @@
+package imooc.com.imooc_imageloader.util;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 堆外的第二级内存缓存：从LruCache淘汰的小图把原始像素复制到一块direct ByteBuffer中，
+ * 再次需要时复制回复用池中的Bitmap，不需要读取文件和解码
+ * 像素保存在Java堆之外，不占用LruCache的容量，也不会增加GC的负担，可以保留比LruCache多得多的图片
+ * 整块内存按BLOCK_SIZE分块，每张图片占用若干块（不需要连续），按LRU淘汰
+ * 内存在第一次放入时才分配，release后由GC回收，下次放入时重新分配
+ */
+public class OffHeapBitmapCache {
+
+    private static final int BLOCK_SIZE = 16 * 1024;
+
+    /**
+     * 单张图片最多占用容量的1/MAX_ENTRY_DIVISOR，大图放进来会挤掉太多小图
+     */
+    private static final int MAX_ENTRY_DIVISOR = 16;
+
+    private static final class Entry {
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+        final int byteCount;
+        final int[] blocks;
+
+        Entry(int width, int height, Bitmap.Config config, int byteCount, int[] blocks) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            this.byteCount = byteCount;
+            this.blocks = blocks;
+        }
+    }
+
+    /**
+     * 按访问顺序排列，最久没有使用的在最前面
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private final int mCapacity;
+    private final int mMaxEntrySize;
+    private int mMaxSize;
+
+    /**
+     * mSlab 整块堆外内存，没有分配时为null
+     * mScratch 和Bitmap之间复制像素用的连续缓冲区
+     * mFreeBlocks 空闲块的下标，前mFreeCount个有效
+     */
+    private ByteBuffer mSlab;
+    private ByteBuffer mScratch;
+    private int[] mFreeBlocks;
+    private int mFreeCount;
+    private int mSize;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+    private int mRejectCount;
+
+    /**
+     * @param capacity 堆外内存的字节数，按BLOCK_SIZE向下取整
+     */
+    public OffHeapBitmapCache(int capacity) {
+        mCapacity = capacity / BLOCK_SIZE * BLOCK_SIZE;
+        mMaxSize = mCapacity;
+        mMaxEntrySize = Math.max(mCapacity / MAX_ENTRY_DIVISOR, BLOCK_SIZE);
+    }
+
+    /**
+     * 保存Bitmap的像素，已经存在时只更新访问顺序
+     * @param key
+     * @param bitmap 调用期间不能被复用或回收
+     * @return 是否保存
+     */
+    public synchronized boolean put(String key, Bitmap bitmap) {
+        if (mEntries.get(key) != null) {
+            return true;
+        }
+        Bitmap.Config config = bitmap.getConfig();
+        int byteCount = bitmap.getByteCount();
+        if (bitmap.isRecycled() || (config != Bitmap.Config.ARGB_8888 && config != Bitmap.Config.RGB_565)
+                || byteCount > mMaxEntrySize || byteCount > mMaxSize) {
+            mRejectCount++;
+            return false;
+        }
+        if (!ensureAllocated()) {
+            mRejectCount++;
+            return false;
+        }
+        int blockCount = (byteCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        trimToSize(mMaxSize - blockCount * BLOCK_SIZE);
+        while (mFreeCount < blockCount && !mEntries.isEmpty()) {
+            evictEldest();
+        }
+
+        mScratch.clear();
+        bitmap.copyPixelsToBuffer(mScratch);
+        int[] blocks = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            blocks[i] = mFreeBlocks[--mFreeCount];
+            int offset = i * BLOCK_SIZE;
+            mScratch.limit(Math.min(offset + BLOCK_SIZE, byteCount));
+            mScratch.position(offset);
+            ByteBuffer target = mSlab.duplicate();
+            target.position(blocks[i] * BLOCK_SIZE);
+            target.put(mScratch);
+        }
+        mEntries.put(key, new Entry(bitmap.getWidth(), bitmap.getHeight(), config, byteCount, blocks));
+        mSize += blockCount * BLOCK_SIZE;
+        mPutCount++;
+        return true;
+    }
+
+    /**
+     * 把保存的像素复制到一个Bitmap中，优先使用复用池中的Bitmap
+     * @param key
+     * @param pool 可以为null
+     * @return 没有时返回null
+     */
+    public synchronized Bitmap get(String key, BitmapPool pool) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        Bitmap bitmap = pool != null ? pool.get(entry.width, entry.height, entry.config) : null;
+        try {
+            if (bitmap != null) {
+                bitmap.reconfigure(entry.width, entry.height, entry.config);
+            } else {
+                bitmap = Bitmap.createBitmap(entry.width, entry.height, entry.config);
+            }
+        } catch (OutOfMemoryError e) {
+            mMissCount++;
+            return null;
+        }
+
+        mScratch.clear();
+        for (int i = 0; i < entry.blocks.length; i++) {
+            ByteBuffer source = mSlab.duplicate();
+            int start = entry.blocks[i] * BLOCK_SIZE;
+            source.position(start);
+            source.limit(start + Math.min(BLOCK_SIZE, entry.byteCount - i * BLOCK_SIZE));
+            mScratch.put(source);
+        }
+        mScratch.flip();
+        bitmap.copyPixelsFromBuffer(mScratch);
+        mHitCount++;
+        return bitmap;
+    }
+
+    public synchronized boolean contains(String key) {
+        return mEntries.containsKey(key);
+    }
+
+    public synchronized void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            freeBlocks(entry);
+        }
+    }
+
+    /**
+     * 移除key以prefix开头的所有图片，比如同一张图片的所有尺寸
+     * @param prefix
+     * @return 移除的数量
+     */
+    public synchronized int removeByPrefix(String prefix) {
+        int removed = 0;
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                iterator.remove();
+                freeBlocks(entry.getValue());
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 淘汰最久没有使用的图片直到占用不超过maxSize
+     * @param maxSize
+     */
+    public synchronized void trimToSize(int maxSize) {
+        while (mSize > maxSize && !mEntries.isEmpty()) {
+            evictEldest();
+        }
+    }
+
+    /**
+     * 修改可以使用的容量，不超过构造时的容量，变小时立即淘汰多出的图片
+     * @param maxSize
+     */
+    public synchronized void resize(int maxSize) {
+        mMaxSize = Math.min(maxSize, mCapacity);
+        trimToSize(mMaxSize);
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 清空并放开整块堆外内存，GC之后才真正释放
+     */
+    public synchronized void release() {
+        mEntries.clear();
+        mSlab = null;
+        mScratch = null;
+        mFreeBlocks = null;
+        mFreeCount = 0;
+        mSize = 0;
+    }
+
+    private boolean ensureAllocated() {
+        if (mSlab != null) {
+            return true;
+        }
+        if (mCapacity == 0) {
+            return false;
+        }
+        try {
+            mSlab = ByteBuffer.allocateDirect(mCapacity);
+            mScratch = ByteBuffer.allocateDirect(mMaxEntrySize);
+        } catch (OutOfMemoryError e) {
+            mSlab = null;
+            return false;
+        }
+        int blockCount = mCapacity / BLOCK_SIZE;
+        mFreeBlocks = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            mFreeBlocks[i] = blockCount - 1 - i;
+        }
+        mFreeCount = blockCount;
+        return true;
+    }
+
+    private void evictEldest() {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        Entry eldest = iterator.next().getValue();
+        iterator.remove();
+        freeBlocks(eldest);
+        mEvictionCount++;
+    }
+
+    private void freeBlocks(Entry entry) {
+        for (int block : entry.blocks) {
+            mFreeBlocks[mFreeCount++] = block;
+        }
+        mSize -= entry.blocks.length * BLOCK_SIZE;
+    }
+
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    public synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int getCount() {
+        return mEntries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getPutCount() {
+        return mPutCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * 太大、格式不支持或者分配内存失败而没有保存的次数
+     */
+    public synchronized int getRejectCount() {
+        return mRejectCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "OffHeapBitmapCache[size=" + mSize + "/" + mMaxSize + ", entries=" + mEntries.size()
+                + ", hits=" + mHitCount + ", misses=" + mMissCount + ", puts=" + mPutCount
+                + ", evictions=" + mEvictionCount + ", rejects=" + mRejectCount + "]";
+    }
+}
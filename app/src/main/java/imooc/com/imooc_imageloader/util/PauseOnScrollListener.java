@@ -0,0 +1,81 @@
+package imooc.com.imooc_imageloader.util;
+
+import android.widget.AbsListView;
+import android.widget.GridView;
+import android.widget.ListAdapter;
+
+/**
+ * 列表滑动监听：fling时暂停ImageLoader，只显示缓存中已有的图片；
+ * 滑动停止后恢复加载，并沿着滑动方向预加载后面几行的图片
+ */
+public class PauseOnScrollListener implements AbsListView.OnScrollListener {
+
+    /**
+     * 支持预加载的Adapter需要实现该接口
+     */
+    public interface Prefetcher {
+        void prefetch(int position);
+    }
+
+    private ImageLoader mImageLoader;
+    private int mPrefetchRows;
+
+    private int mLastFirstVisibleItem;
+    private boolean mScrollDown = true;
+
+    /**
+     * @param imageLoader
+     * @param prefetchRows 滑动停止后预加载的行数
+     */
+    public PauseOnScrollListener(ImageLoader imageLoader, int prefetchRows) {
+        mImageLoader = imageLoader;
+        mPrefetchRows = prefetchRows;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (scrollState == SCROLL_STATE_FLING) {
+            mImageLoader.pause();
+        } else {
+            mImageLoader.resume();
+            if (scrollState == SCROLL_STATE_IDLE) {
+                prefetch(view);
+            }
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (firstVisibleItem != mLastFirstVisibleItem) {
+            mScrollDown = firstVisibleItem > mLastFirstVisibleItem;
+            mLastFirstVisibleItem = firstVisibleItem;
+        }
+    }
+
+    /**
+     * 按照离可见区域由近到远的顺序预加载
+     * @param view
+     */
+    private void prefetch(AbsListView view) {
+        ListAdapter adapter = view.getAdapter();
+        if (!(adapter instanceof Prefetcher) || mPrefetchRows <= 0) {
+            return;
+        }
+        int columns = view instanceof GridView ? Math.max(((GridView) view).getNumColumns(), 1) : 1;
+        int count = mPrefetchRows * columns;
+        Prefetcher prefetcher = (Prefetcher) adapter;
+        if (mScrollDown) {
+            int start = view.getLastVisiblePosition() + 1;
+            int end = Math.min(start + count, adapter.getCount());
+            for (int i = start; i < end; i++) {
+                prefetcher.prefetch(i);
+            }
+        } else {
+            int start = view.getFirstVisiblePosition() - 1;
+            int end = Math.max(start - count, -1);
+            for (int i = start; i > end; i--) {
+                prefetcher.prefetch(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package imooc.com.imooc_imageloader.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 只打开一次的图片文件流：解码边界时读过的文件头保存在缓冲区中，rewind后先从缓冲区读，再接着读文件，
+ * 完整解码时不需要重新打开文件，也不会重复读取文件头
+ * 缓冲区和解码用的inTempStorage按线程复用，工作线程处理下一个任务时不再分配
+ */
+public class RewindableFileStream extends InputStream {
+
+    /**
+     * 文件头缓冲区的大小，相机照片的EXIF（包含缩略图）一般不超过64K
+     */
+    public static final int HEADER_BUFFER_SIZE = 128 * 1024;
+
+    /**
+     * BitmapFactory.Options.inTempStorage的大小，和BitmapFactory默认分配的一样
+     */
+    public static final int TEMP_STORAGE_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<byte[]> sHeaderBuffer = new ThreadLocal<byte[]>();
+    private static final ThreadLocal<byte[]> sTempStorage = new ThreadLocal<byte[]>();
+
+    private final FileInputStream mIn;
+    private byte[] mBuffer;
+    /**
+     * read()读单个字节时使用，不需要每次分配
+     */
+    private final byte[] mSingleByte = new byte[1];
+    /**
+     * mCount 缓冲区中保存的字节数
+     * mPos rewind之后在缓冲区中读到的位置，rewind之前为-1
+     * mOverflow 文件头超过了缓冲区，不能rewind
+     */
+    private int mCount;
+    private int mPos = -1;
+    private boolean mOverflow;
+
+    public RewindableFileStream(String path) throws IOException {
+        mIn = new FileInputStream(path);
+        mBuffer = sHeaderBuffer.get();
+        //同一线程中同时打开的流不能共用缓冲区
+        sHeaderBuffer.set(null);
+        if (mBuffer == null) {
+            mBuffer = new byte[HEADER_BUFFER_SIZE];
+        }
+    }
+
+    /**
+     * 当前线程复用的inTempStorage
+     * @return
+     */
+    public static byte[] getTempStorage() {
+        byte[] storage = sTempStorage.get();
+        if (storage == null) {
+            storage = new byte[TEMP_STORAGE_SIZE];
+            sTempStorage.set(storage);
+        }
+        return storage;
+    }
+
+    /**
+     * 回到文件开头，之后读到的内容和第一次相同
+     * @return 文件头超过了缓冲区或者已经rewind过时返回false，此时只能重新打开文件
+     */
+    public boolean rewind() {
+        if (mOverflow || mPos >= 0) {
+            return false;
+        }
+        mPos = 0;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (mPos >= 0 && mPos < mCount) {
+            return mBuffer[mPos++] & 0xff;
+        }
+        return read(mSingleByte, 0, 1) == 1 ? mSingleByte[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (mPos >= 0 && mPos < mCount) {
+            //rewind之后先读缓冲区
+            int n = Math.min(len, mCount - mPos);
+            System.arraycopy(mBuffer, mPos, b, off, n);
+            mPos += n;
+            return n;
+        }
+        int n = mIn.read(b, off, len);
+        if (n > 0 && mPos < 0 && !mOverflow) {
+            //rewind之前读到的内容都记录下来
+            if (mCount + n <= mBuffer.length) {
+                System.arraycopy(b, off, mBuffer, mCount, n);
+                mCount += n;
+            } else {
+                mOverflow = true;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        if (mPos >= 0 && mPos < mCount) {
+            int skipped = (int) Math.min(n, mCount - mPos);
+            mPos += skipped;
+            return skipped;
+        }
+        if (mPos < 0) {
+            //rewind之前跳过的内容也需要记录，只能读出来
+            byte[] skipBuffer = new byte[(int) Math.min(n, 4096)];
+            int read = read(skipBuffer, 0, skipBuffer.length);
+            return Math.max(read, 0);
+        }
+        return mIn.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        int buffered = mPos >= 0 ? mCount - mPos : 0;
+        return buffered + mIn.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mBuffer != null) {
+            sHeaderBuffer.set(mBuffer);
+            mBuffer = null;
+        }
+        mIn.close();
+    }
+}
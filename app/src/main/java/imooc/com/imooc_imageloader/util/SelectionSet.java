@@ -0,0 +1,206 @@
+package imooc.com.imooc_imageloader.util;
+
+import java.util.Arrays;
+
+/**
+ * 一个文件夹中被选择的图片，按照图片的id（MediaStore的_ID）保存在long数组实现的哈希表中，
+ * 不需要拼接路径字符串，也不会为每个元素分配对象
+ * 全选和全不选只改变一个标记：mInverted为true时表中保存的是没有被选择的id
+ * 所有方法都是同步的，后台线程批量处理时可以通过snapshot取得一致的副本
+ */
+public class SelectionSet {
+
+    /**
+     * 某一时刻的选择状态，不会再改变，可以在任意线程中使用
+     */
+    public static final class Snapshot {
+        private final long[] mTable;
+        private final boolean mInverted;
+
+        Snapshot(long[] table, boolean inverted) {
+            mTable = table;
+            mInverted = inverted;
+        }
+
+        public boolean isSelected(long id) {
+            return id > 0 && (indexOf(mTable, id) >= 0) != mInverted;
+        }
+
+        /**
+         * @return 为true时除了getIds之外全部被选择，否则只有getIds被选择
+         */
+        public boolean isInverted() {
+            return mInverted;
+        }
+
+        public long[] getIds() {
+            int count = 0;
+            for (long id : mTable) {
+                if (id != EMPTY) {
+                    count++;
+                }
+            }
+            long[] ids = new long[count];
+            int i = 0;
+            for (long id : mTable) {
+                if (id != EMPTY) {
+                    ids[i++] = id;
+                }
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * id都大于0，0表示空位
+     */
+    private static final long EMPTY = 0;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] mTable = new long[INITIAL_CAPACITY];
+    private int mSize;
+    private boolean mInverted;
+
+    public synchronized boolean isSelected(long id) {
+        return id > 0 && (indexOf(mTable, id) >= 0) != mInverted;
+    }
+
+    public synchronized void setSelected(long id, boolean selected) {
+        if (id <= 0) {
+            return;
+        }
+        if (selected != mInverted) {
+            add(id);
+        } else {
+            remove(id);
+        }
+    }
+
+    /**
+     * @return 切换后是否被选择
+     */
+    public synchronized boolean toggle(long id) {
+        boolean selected = !isSelected(id);
+        setSelected(id, selected);
+        return selected;
+    }
+
+    /**
+     * 选择一组id，比如一段连续位置的图片
+     * @param ids 小于等于0的会被忽略
+     * @param selected
+     */
+    public synchronized void setSelected(long[] ids, boolean selected) {
+        for (long id : ids) {
+            setSelected(id, selected);
+        }
+    }
+
+    public synchronized void selectAll() {
+        clearTable();
+        mInverted = true;
+    }
+
+    public synchronized void clear() {
+        clearTable();
+        mInverted = false;
+    }
+
+    /**
+     * @param totalCount 文件夹中图片的总数，全选之后计算数量需要用到
+     * @return 被选择的图片数
+     */
+    public synchronized int getSelectedCount(int totalCount) {
+        return mInverted ? Math.max(totalCount - mSize, 0) : mSize;
+    }
+
+    public synchronized boolean isEmpty() {
+        return !mInverted && mSize == 0;
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(mTable.clone(), mInverted);
+    }
+
+    private void clearTable() {
+        if (mTable.length > INITIAL_CAPACITY) {
+            mTable = new long[INITIAL_CAPACITY];
+        } else {
+            Arrays.fill(mTable, EMPTY);
+        }
+        mSize = 0;
+    }
+
+    private void add(long id) {
+        if (indexOf(mTable, id) >= 0) {
+            return;
+        }
+        //装载因子不超过1/2
+        if ((mSize + 1) * 2 > mTable.length) {
+            rehash(mTable.length * 2);
+        }
+        insert(mTable, id);
+        mSize++;
+    }
+
+    /**
+     * 线性探测的删除：把后面同一簇中的元素往前移，不需要删除标记
+     */
+    private void remove(long id) {
+        int index = indexOf(mTable, id);
+        if (index < 0) {
+            return;
+        }
+        long[] table = mTable;
+        int mask = table.length - 1;
+        int hole = index;
+        int i = (hole + 1) & mask;
+        while (table[i] != EMPTY) {
+            int home = hash(table[i]) & mask;
+            //home不在(hole, i]之间时可以移到hole
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                table[hole] = table[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        table[hole] = EMPTY;
+        mSize--;
+    }
+
+    private void rehash(int capacity) {
+        long[] table = new long[capacity];
+        for (long id : mTable) {
+            if (id != EMPTY) {
+                insert(table, id);
+            }
+        }
+        mTable = table;
+    }
+
+    private static void insert(long[] table, long id) {
+        int mask = table.length - 1;
+        int i = hash(id) & mask;
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = id;
+    }
+
+    private static int indexOf(long[] table, long id) {
+        int mask = table.length - 1;
+        int i = hash(id) & mask;
+        while (table[i] != EMPTY) {
+            if (table[i] == id) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
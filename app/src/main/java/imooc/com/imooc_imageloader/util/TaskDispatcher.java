@@ -0,0 +1,405 @@
+package imooc.com.imooc_imageloader.util;
+
+import android.os.Process;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 任务调度器：工作线程直接从无锁双端队列中取任务执行
+ * 提交任务只做一次入队和一次信号量的release，不会阻塞调用线程（通常是UI线程）
+ * 任务分为几个优先级，高优先级的先执行；低优先级的任务等待足够久之后可以插队，不会一直等下去
+ * 排队中的任务可以通过提交时返回的Ticket修改优先级
+ */
+public class TaskDispatcher {
+
+    /**
+     * 优先级，数值越小越先执行：屏幕上可见的、刚滑出屏幕的、预加载的、后台的
+     */
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_NEAR_VISIBLE = 1;
+    public static final int PRIORITY_PREFETCH = 2;
+    public static final int PRIORITY_BACKGROUND = 3;
+    private static final int PRIORITY_COUNT = 4;
+
+    /**
+     * 优先级为p的任务等待超过p * AGING_INTERVAL_NANOS之后可以插队
+     */
+    private static final long AGING_INTERVAL_NANOS = 500 * 1000 * 1000L;
+
+    /**
+     * 每AGING_TURN次取任务最多有一次给插队的任务，插队的任务再多，可见任务的等待也最多增加1/AGING_TURN
+     */
+    private static final int AGING_TURN = 4;
+
+    /**
+     * 排队中的一个任务，可以用来修改它的优先级
+     * 任务被取出执行或者被移到别的优先级之后失效，留在队列中的失效Ticket在取任务时从队列两端丢弃
+     */
+    public static final class Ticket {
+        final Runnable task;
+        final int priority;
+        final long enqueuedAt;
+        final AtomicBoolean taken = new AtomicBoolean();
+
+        Ticket(Runnable task, int priority, long enqueuedAt) {
+            this.task = task;
+            this.priority = priority;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+    }
+
+    /**
+     * 每个优先级一个队列，VISIBLE和NEAR_VISIBLE按照调度方式取（FIFO从头部取，LIFO从尾部取），
+     * PREFETCH和BACKGROUND按FIFO执行
+     */
+    private final ConcurrentLinkedDeque<Ticket>[] mQueues;
+
+    /**
+     * 高优先级任务队列（比如渐进加载的低分辨率预览），总是最先取，不能修改优先级
+     */
+    private final ConcurrentLinkedDeque<Runnable> mHighPriorityQueue = new ConcurrentLinkedDeque<Runnable>();
+
+    /**
+     * 队列中没有失效的任务数，工作线程没有任务时阻塞在这里
+     */
+    private final Semaphore mAvailable = new Semaphore(0);
+    private final AtomicInteger mTakeCount = new AtomicInteger();
+
+    /**
+     * 修改优先级时旧的Ticket失效和新的Ticket入队在这个锁中完成
+     * 工作线程拿到了名额却取不到任务，说明有任务正在移动，在这个锁上等待移动完成，不需要自旋
+     */
+    private final Object mMoveLock = new Object();
+
+    /**
+     * 暂停时工作线程不再开始新的任务
+     * mRunning 正在执行任务的线程数，不能超过mMaxRunning，内存紧张时可以降低并发
+     * 没有暂停、并发没有达到上限时只做一次CAS，不需要加锁；
+     * 否则在mPauseLock上等待，mWaiting为等待的线程数，没有等待的线程时任务结束也不需要加锁
+     */
+    private final Object mPauseLock = new Object();
+    private volatile boolean mPaused;
+    private volatile int mMaxRunning;
+    private final AtomicInteger mRunning = new AtomicInteger();
+    private volatile int mWaiting;
+
+    /**
+     * true为LIFO，false为FIFO
+     */
+    private final boolean mLifo;
+    private final Thread[] mWorkers;
+
+    /**
+     * @param threadCount 工作线程数
+     * @param lifo 对应ImageLoader.Type.LIFO
+     */
+    public TaskDispatcher(int threadCount, boolean lifo) {
+        this("ImageLoader-worker", threadCount, lifo);
+    }
+
+    /**
+     * @param name 工作线程名的前缀
+     * @param threadCount 工作线程数
+     * @param lifo 对应ImageLoader.Type.LIFO
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TaskDispatcher(String name, int threadCount, boolean lifo) {
+        mLifo = lifo;
+        mQueues = new ConcurrentLinkedDeque[PRIORITY_COUNT];
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mQueues[i] = new ConcurrentLinkedDeque<Ticket>();
+        }
+        mMaxRunning = threadCount;
+        mWorkers = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            mWorkers[i] = new Worker(name + "-" + i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * 以PRIORITY_VISIBLE提交一个任务
+     * @param task
+     */
+    public void execute(Runnable task) {
+        execute(task, PRIORITY_VISIBLE);
+    }
+
+    /**
+     * 提交一个任务
+     * @param task
+     * @param priority PRIORITY_开头的常量
+     * @return 用于修改优先级
+     */
+    public Ticket execute(Runnable task, int priority) {
+        Ticket ticket = new Ticket(task, priority, now());
+        mQueues[priority].add(ticket);
+        mAvailable.release();
+        return ticket;
+    }
+
+    /**
+     * 修改排队中的任务的优先级，等待时间从第一次提交开始计算
+     * @param ticket
+     * @param priority
+     * @return 新的Ticket，之后用它修改优先级；任务已经开始执行时返回null
+     */
+    public Ticket reprioritize(Ticket ticket, int priority) {
+        if (ticket.priority == priority) {
+            return ticket.taken.get() ? null : ticket;
+        }
+        synchronized (mMoveLock) {
+            if (!ticket.taken.compareAndSet(false, true)) {
+                return null;
+            }
+            //旧的Ticket已经失效，可取的任务数不变
+            Ticket moved = new Ticket(ticket.task, priority, ticket.enqueuedAt);
+            mQueues[priority].add(moved);
+            return moved;
+        }
+    }
+
+    /**
+     * 提交一个高优先级的任务，会先于所有普通任务执行
+     * @param task
+     */
+    public void executeHighPriority(Runnable task) {
+        mHighPriorityQueue.add(task);
+        mAvailable.release();
+    }
+
+    /**
+     * 以PRIORITY_PREFETCH提交一个任务
+     * @param task
+     */
+    public void executeLowPriority(Runnable task) {
+        execute(task, PRIORITY_PREFETCH);
+    }
+
+    /**
+     * 暂停，正在执行的任务不受影响
+     */
+    public void pause() {
+        synchronized (mPauseLock) {
+            mPaused = true;
+        }
+    }
+
+    public void resume() {
+        synchronized (mPauseLock) {
+            mPaused = false;
+            mPauseLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * 限制同时执行任务的线程数，不会超过创建时的线程数，正在执行的任务不受影响
+     * @param maxRunning
+     */
+    public void setMaxConcurrency(int maxRunning) {
+        synchronized (mPauseLock) {
+            mMaxRunning = Math.max(1, Math.min(maxRunning, mWorkers.length));
+            mPauseLock.notifyAll();
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return mMaxRunning;
+    }
+
+    public int getThreadCount() {
+        return mWorkers.length;
+    }
+
+    /**
+     * 停止所有工作线程，排队中的任务不再执行
+     */
+    public void shutdown() {
+        for (Thread worker : mWorkers) {
+            worker.interrupt();
+        }
+        mHighPriorityQueue.clear();
+        for (ConcurrentLinkedDeque<Ticket> queue : mQueues) {
+            queue.clear();
+        }
+    }
+
+    /**
+     * 当前排队中的任务数，包括已经被工作线程取到、正在等待暂停结束的
+     * @return
+     */
+    public int getQueueSize() {
+        int size = mHighPriorityQueue.size();
+        for (ConcurrentLinkedDeque<Ticket> queue : mQueues) {
+            for (Ticket ticket : queue) {
+                if (!ticket.taken.get()) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 取出一个任务：先取高优先级队列，然后每AGING_TURN次取一次等待太久的低优先级任务，
+     * 其余按照优先级从高到低取
+     * @return
+     */
+    private Runnable takeTask() throws InterruptedException {
+        mAvailable.acquire();
+        acquireSlot();
+        Runnable task = mLifo ? mHighPriorityQueue.pollLast() : mHighPriorityQueue.pollFirst();
+        if (task != null) {
+            return task;
+        }
+        Ticket ticket = mTakeCount.incrementAndGet() % AGING_TURN == 0 ? pollAged() : null;
+        if (ticket == null) {
+            ticket = pollByPriority();
+        }
+        while (ticket == null) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            //另一个线程正在修改这个任务的优先级，旧的Ticket已经失效，新的还没有入队，等移动完成后再取
+            synchronized (mMoveLock) {
+                ticket = pollByPriority();
+            }
+        }
+        return ticket.task;
+    }
+
+    private Ticket pollByPriority() {
+        for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+            ConcurrentLinkedDeque<Ticket> queue = mQueues[priority];
+            boolean lifo = mLifo && priority < PRIORITY_PREFETCH;
+            Ticket ticket;
+            while ((ticket = lifo ? queue.pollLast() : queue.pollFirst()) != null) {
+                if (ticket.taken.compareAndSet(false, true)) {
+                    if (lifo) {
+                        dropStaleHead(queue);
+                    }
+                    return ticket;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 丢弃队列头部失效的Ticket
+     * LIFO的队列从尾部取，头部被移到别的优先级的Ticket不这样清理的话，会一直留到队列取空，同时引用着任务
+     * @param queue
+     */
+    private static void dropStaleHead(ConcurrentLinkedDeque<Ticket> queue) {
+        Ticket head;
+        while ((head = queue.peekFirst()) != null && head.taken.get()) {
+            queue.removeFirstOccurrence(head);
+        }
+    }
+
+    /**
+     * 在低优先级队列的头部（等待最久的）找一个已经等待足够久的任务
+     * 只查看头部，取到之后才移除，不需要在队列中间删除，检查期间别的线程仍然可以取到它
+     * @return 没有时返回null
+     */
+    private Ticket pollAged() {
+        long now = now();
+        for (int priority = 1; priority < PRIORITY_COUNT; priority++) {
+            ConcurrentLinkedDeque<Ticket> queue = mQueues[priority];
+            dropStaleHead(queue);
+            Ticket head = queue.peekFirst();
+            if (head != null && now - head.enqueuedAt >= priority * AGING_INTERVAL_NANOS
+                    && head.taken.compareAndSet(false, true)) {
+                queue.removeFirstOccurrence(head);
+                return head;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 计算等待时间用的时钟，单位纳秒，测试中替换成手动推进的时钟
+     * @return
+     */
+    long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 等待直到没有暂停并且并发没有达到上限，占用一个执行的名额
+     */
+    private void acquireSlot() throws InterruptedException {
+        while (true) {
+            if (!mPaused) {
+                int running = mRunning.get();
+                if (running < mMaxRunning) {
+                    if (mRunning.compareAndSet(running, running + 1)) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            synchronized (mPauseLock) {
+                //先登记等待再检查条件，releaseSlot要么看到登记，要么这里看到它释放的名额
+                mWaiting++;
+                try {
+                    while (mPaused || mRunning.get() >= mMaxRunning) {
+                        mPauseLock.wait();
+                    }
+                } finally {
+                    mWaiting--;
+                }
+            }
+        }
+    }
+
+    private void releaseSlot() {
+        mRunning.decrementAndGet();
+        if (mWaiting > 0) {
+            synchronized (mPauseLock) {
+                mPauseLock.notify();
+            }
+        }
+    }
+
+    private class Worker extends Thread {
+
+        Worker(String name) {
+            super(name);
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (true) {
+                Runnable task;
+                try {
+                    task = takeTask();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    if (task != null) {
+                        task.run();
+                    }
+                } catch (RuntimeException e) {
+                    //单个任务出错不能影响工作线程
+                    e.printStackTrace();
+                } finally {
+                    releaseSlot();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package imooc.com.imooc_imageloader.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * 缩略图快速通道：图片自带的EXIF缩略图，或者MediaStore已经生成的缩略图足够大时，
+ * 直接解码它们，不需要解析原图的整个JPEG数据
+ * 这两种缩略图都没有按照EXIF方向旋转，需要调用rotate
+ */
+public class ThumbnailExtractor {
+
+    private ThumbnailExtractor() {
+    }
+
+    /**
+     * 读取图片的EXIF信息，只支持JPEG
+     * @param path
+     * @return 不是JPEG或者读取失败时返回null
+     */
+    public static ExifInterface readExif(String path) {
+        String lower = path.toLowerCase();
+        if (!lower.endsWith(".jpg") && !lower.endsWith(".jpeg")) {
+            return null;
+        }
+        try {
+            return new ExifInterface(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @param exif 可以为null
+     * @return EXIF中的方向，没有时为ORIENTATION_NORMAL
+     */
+    public static int getOrientation(ExifInterface exif) {
+        if (exif == null) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+        return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+    }
+
+    /**
+     * 该方向是否需要交换宽高
+     * @param orientation
+     * @return
+     */
+    public static boolean isTransposed(int orientation) {
+        return orientation == ExifInterface.ORIENTATION_ROTATE_90
+                || orientation == ExifInterface.ORIENTATION_ROTATE_270
+                || orientation == ExifInterface.ORIENTATION_TRANSPOSE
+                || orientation == ExifInterface.ORIENTATION_TRANSVERSE;
+    }
+
+    /**
+     * 解码EXIF或MediaStore的缩略图
+     * @param data
+     * @param reqWidth 已经按照方向交换过的需求宽高
+     * @param reqHeight
+     * @param mustCover 为true时宽高都不小于需求才解码，否则不管多大都解码
+     * @param options
+     * @return 数据损坏或者缩略图太小时返回null
+     */
+    public static Bitmap decodeThumbnail(byte[] data, int reqWidth, int reqHeight, boolean mustCover,
+                                         BitmapFactory.Options options) {
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || (mustCover && (options.outWidth < reqWidth || options.outHeight < reqHeight))) {
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inDensity = 0;
+        options.inTargetDensity = 0;
+        options.inSampleSize = DecodeUtils.calculatePowerOfTwoSampleSize(options.outWidth, options.outHeight,
+                reqWidth, reqHeight, true);
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    /**
+     * 查询MediaStore中已经生成的缩略图文件，不会触发生成
+     * @param context
+     * @param path 原图路径
+     * @return 没有时返回null
+     */
+    public static String queryMediaStoreThumbnail(Context context, String path) {
+        ContentResolver cr = context.getContentResolver();
+        Cursor cursor = null;
+        try {
+            cursor = cr.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, new String[]{MediaStore.Images.Media._ID},
+                    MediaStore.Images.Media.DATA + " = ?", new String[]{path}, null);
+            if (cursor == null || !cursor.moveToNext()) {
+                return null;
+            }
+            long id = cursor.getLong(0);
+            cursor.close();
+
+            cursor = MediaStore.Images.Thumbnails.queryMiniThumbnail(cr, id,
+                    MediaStore.Images.Thumbnails.MINI_KIND, new String[]{MediaStore.Images.Thumbnails.DATA});
+            if (cursor == null || !cursor.moveToNext()) {
+                return null;
+            }
+            return cursor.getString(0);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * 读取MediaStore中已经生成的缩略图文件，不会触发生成
+     * @param context
+     * @param path 原图路径
+     * @param maxLength 文件超过这个大小时不读取
+     * @return 没有缩略图、文件太大或者读取失败时返回null
+     */
+    public static byte[] readMediaStoreThumbnail(Context context, String path, int maxLength) {
+        String thumbnail = queryMediaStoreThumbnail(context, path);
+        if (thumbnail == null) {
+            return null;
+        }
+        long length = new File(thumbnail).length();
+        if (length <= 0 || length > maxLength) {
+            return null;
+        }
+        byte[] data = new byte[(int) length];
+        try {
+            FileInputStream in = new FileInputStream(thumbnail);
+            try {
+                int read = 0;
+                while (read < data.length) {
+                    int n = in.read(data, read, data.length - read);
+                    if (n < 0) {
+                        return null;
+                    }
+                    read += n;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * 按照EXIF方向旋转或翻转，source不再使用的由调用者处理
+     * @param source
+     * @param orientation
+     * @return 不需要变换时返回source本身
+     */
+    public static Bitmap rotate(Bitmap source, int orientation) {
+        Matrix matrix = getOrientationMatrix(orientation);
+        if (matrix == null) {
+            return source;
+        }
+        try {
+            return Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+        } catch (OutOfMemoryError e) {
+            //内存不足时宁可显示方向不对的图片
+            return source;
+        }
+    }
+
+    /**
+     * EXIF方向对应的旋转或翻转，不包含平移
+     * @param orientation
+     * @return 不需要变换时返回null
+     */
+    public static Matrix getOrientationMatrix(int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return null;
+        }
+        return matrix;
+    }
+}
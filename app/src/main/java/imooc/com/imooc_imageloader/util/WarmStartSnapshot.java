@@ -0,0 +1,149 @@
+package imooc.com.imooc_imageloader.util;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 离开界面时的状态：当前文件夹、排序、滑动位置和屏幕上图片的缓存key
+ * 下次启动时不等文件夹扫描完成，直接显示这个文件夹，同时从磁盘缓存预加载这些图片
+ * 文件很小，读取在UI线程中进行，写入在后台线程中依次进行
+ */
+public class WarmStartSnapshot {
+
+    private static final String SNAPSHOT_FILE = "warm_start";
+    private static final String SNAPSHOT_VERSION = "v1";
+
+    private static final ExecutorService sWriter = Executors.newSingleThreadExecutor();
+
+    private final String mDir;
+    private final int mCount;
+    private final FolderImageSource.SortOrder mSortOrder;
+    private final int mFirstVisiblePosition;
+    private final List<String> mVisibleKeys;
+
+    /**
+     * @param dir 文件夹的完整路径
+     * @param count 文件夹中的图片数，下次启动时作为估计的总数
+     * @param sortOrder
+     * @param firstVisiblePosition
+     * @param visibleKeys 屏幕上图片的缓存key，见ImageLoader.getCacheKey(String, ImageView)
+     */
+    public WarmStartSnapshot(String dir, int count, FolderImageSource.SortOrder sortOrder,
+                             int firstVisiblePosition, List<String> visibleKeys) {
+        mDir = dir;
+        mCount = count;
+        mSortOrder = sortOrder;
+        mFirstVisiblePosition = firstVisiblePosition;
+        mVisibleKeys = Collections.unmodifiableList(new ArrayList<String>(visibleKeys));
+    }
+
+    public String getDir() {
+        return mDir;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public FolderImageSource.SortOrder getSortOrder() {
+        return mSortOrder;
+    }
+
+    public int getFirstVisiblePosition() {
+        return mFirstVisiblePosition;
+    }
+
+    public List<String> getVisibleKeys() {
+        return mVisibleKeys;
+    }
+
+    /**
+     * 读取上次保存的状态
+     * @param context
+     * @return 没有保存过或者文件损坏时返回null
+     */
+    public static WarmStartSnapshot read(Context context) {
+        File file = new File(context.getFilesDir(), SNAPSHOT_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String[] header = reader.readLine().split(" ");
+                if (!SNAPSHOT_VERSION.equals(header[0])) {
+                    return null;
+                }
+                FolderImageSource.SortOrder sortOrder = FolderImageSource.SortOrder.valueOf(header[1]);
+                int count = Integer.parseInt(header[2]);
+                int firstVisiblePosition = Integer.parseInt(header[3]);
+                String dir = reader.readLine();
+                if (dir == null || dir.isEmpty()) {
+                    return null;
+                }
+                List<String> keys = new ArrayList<String>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    keys.add(line);
+                }
+                return new WarmStartSnapshot(dir, count, sortOrder, firstVisiblePosition, keys);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } catch (RuntimeException e) {
+            //文件损坏
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 在后台线程中保存，先写入临时文件再改名，不会留下写了一半的文件
+     * @param context
+     */
+    public void write(Context context) {
+        final File dir = context.getApplicationContext().getFilesDir();
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = new File(dir, SNAPSHOT_FILE);
+                File tmp = new File(dir, SNAPSHOT_FILE + ".tmp");
+                try {
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+                    try {
+                        writer.write(SNAPSHOT_VERSION + " " + mSortOrder.name() + " " + mCount + " " + mFirstVisiblePosition + "\n");
+                        writer.write(mDir + "\n");
+                        for (String key : mVisibleKeys) {
+                            writer.write(key + "\n");
+                        }
+                    } finally {
+                        writer.close();
+                    }
+                    if (!tmp.renameTo(file)) {
+                        tmp.delete();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    tmp.delete();
+                }
+            }
+        });
+    }
+}
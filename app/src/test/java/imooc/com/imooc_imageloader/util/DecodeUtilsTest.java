@@ -0,0 +1,196 @@
+package imooc.com.imooc_imageloader.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecodeUtilsTest {
+
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_RGBA = 6;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("decode-utils", ".png");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void sampleSizeIsOneWhenNotLargerThanTarget() {
+        assertEquals(1, DecodeUtils.calculatePowerOfTwoSampleSize(100, 100, 100, 100, false));
+        assertEquals(1, DecodeUtils.calculatePowerOfTwoSampleSize(50, 80, 100, 100, true));
+        assertEquals(1, DecodeUtils.calculatePowerOfTwoSampleSize(199, 199, 100, 100, false));
+    }
+
+    @Test
+    public void sampleSizeIsLargestPowerOfTwoNotBelowTarget() {
+        assertEquals(2, DecodeUtils.calculatePowerOfTwoSampleSize(200, 200, 100, 100, false));
+        assertEquals(2, DecodeUtils.calculatePowerOfTwoSampleSize(399, 399, 100, 100, false));
+        assertEquals(4, DecodeUtils.calculatePowerOfTwoSampleSize(400, 400, 100, 100, false));
+        assertEquals(16, DecodeUtils.calculatePowerOfTwoSampleSize(4000, 3000, 200, 150, false));
+    }
+
+    @Test
+    public void cropUsesTheSmallerRatio() {
+        //4000x1000放进200x200：fit按宽缩小20倍，crop按高缩小5倍
+        assertEquals(16, DecodeUtils.calculatePowerOfTwoSampleSize(4000, 1000, 200, 200, false));
+        assertEquals(4, DecodeUtils.calculatePowerOfTwoSampleSize(4000, 1000, 200, 200, true));
+    }
+
+    @Test
+    public void sampledSizeStillCoversTarget() {
+        int[] sizes = {1, 7, 99, 100, 101, 640, 1080, 1920, 4032, 12000};
+        for (int width : sizes) {
+            for (int height : sizes) {
+                for (boolean crop : new boolean[]{false, true}) {
+                    int sampleSize = DecodeUtils.calculatePowerOfTwoSampleSize(width, height, 100, 100, crop);
+                    assertEquals(Integer.highestOneBit(sampleSize), sampleSize);
+                    String message = width + "x" + height + " crop=" + crop + " sampleSize=" + sampleSize;
+                    //采样后不比目标小，再大一倍就比目标小
+                    float scale = DecodeUtils.getTargetScale(width / sampleSize, height / sampleSize, 100, 100, crop);
+                    assertTrue(message, sampleSize == 1 || scale <= 1.0f);
+                    int next = sampleSize * 2;
+                    assertTrue(message, DecodeUtils.getTargetScale(width / next, height / next, 100, 100, crop) > 1.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void opaquePng() throws IOException {
+        write(png(COLOR_RGB, false));
+        assertFalse(DecodeUtils.pngHasAlpha(mFile.getPath()));
+    }
+
+    @Test
+    public void alphaColorType() throws IOException {
+        write(png(COLOR_RGBA, false));
+        assertTrue(DecodeUtils.pngHasAlpha(mFile.getPath()));
+    }
+
+    @Test
+    public void transparencyChunk() throws IOException {
+        write(png(COLOR_RGB, true));
+        assertTrue(DecodeUtils.pngHasAlpha(mFile.getPath()));
+    }
+
+    @Test
+    public void notPng() throws IOException {
+        byte[] data = png(COLOR_RGB, false);
+        data[1] = 'X';
+        write(data);
+        assertTrue(DecodeUtils.pngHasAlpha(mFile.getPath()));
+    }
+
+    @Test
+    public void missingFile() {
+        assertTrue(mFile.delete());
+        assertTrue(DecodeUtils.pngHasAlpha(mFile.getPath()));
+    }
+
+    @Test
+    public void truncatedAnywhereBeforeImageData() throws IOException {
+        byte[] data = png(COLOR_RGB, false);
+        //在读完IDAT块的类型之前截断都无法判断，IDAT的类型之后还有4字节数据、4字节CRC和12字节的IEND
+        int idatType = data.length - 12 - 4 - 4 - 4;
+        for (int length = 0; length < idatType + 4; length++) {
+            write(Arrays.copyOf(data, length));
+            assertTrue("truncated at " + length, DecodeUtils.pngHasAlpha(mFile.getPath()));
+        }
+    }
+
+    @Test
+    public void negativeChunkLength() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(signature());
+        //长度损坏成负数，类型恰好是IDAT
+        out.writeInt(-1);
+        out.writeBytes("IDAT");
+        write(bytes.toByteArray());
+        assertTrue(DecodeUtils.pngHasAlpha(mFile.getPath()));
+    }
+
+    @Test
+    public void chunkLengthPastEndOfFile() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(signature());
+        out.writeInt(Integer.MAX_VALUE);
+        out.writeBytes("tEXt");
+        out.write(new byte[16]);
+        write(bytes.toByteArray());
+        assertTrue(DecodeUtils.pngHasAlpha(mFile.getPath()));
+    }
+
+    /**
+     * 最小的PNG结构：签名、IHDR、可选的tRNS、IDAT、IEND，CRC不校验，写0
+     */
+    private static byte[] png(int colorType, boolean trns) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(signature());
+
+        out.writeInt(13);
+        out.writeBytes("IHDR");
+        out.writeInt(1);
+        out.writeInt(1);
+        out.writeByte(8);
+        out.writeByte(colorType);
+        out.writeByte(0);
+        out.writeByte(0);
+        out.writeByte(0);
+        out.writeInt(0);
+
+        out.writeInt(0);
+        out.writeBytes("tEXt");
+        out.writeInt(0);
+
+        if (trns) {
+            out.writeInt(6);
+            out.writeBytes("tRNS");
+            out.write(new byte[6]);
+            out.writeInt(0);
+        }
+
+        out.writeInt(4);
+        out.writeBytes("IDAT");
+        out.write(new byte[4]);
+        out.writeInt(0);
+
+        out.writeInt(0);
+        out.writeBytes("IEND");
+        out.writeInt(0);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] signature() {
+        return new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    }
+
+    private void write(byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
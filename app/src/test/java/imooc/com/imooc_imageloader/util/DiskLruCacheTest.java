@@ -0,0 +1,154 @@
+package imooc.com.imooc_imageloader.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiskLruCacheTest {
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("disk-lru-cache", "");
+        assertTrue(mDir.delete());
+        assertTrue(mDir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void reopenReplaysEntriesAndAccessOrder() throws IOException {
+        DiskLruCache cache = DiskLruCache.open(mDir, 30);
+        assertTrue(cache.put("a", new byte[10]));
+        assertTrue(cache.put("b", new byte[10]));
+        assertTrue(cache.put("c", new byte[10]));
+        //a被访问过，b成为最久未使用的
+        assertNotNull(cache.get("a"));
+
+        DiskLruCache reopened = DiskLruCache.open(mDir, 30);
+        assertEquals(30, reopened.size());
+        assertTrue(reopened.put("d", new byte[10]));
+        assertNull(reopened.get("b"));
+        assertFalse(new File(mDir, "b").exists());
+        assertNotNull(reopened.get("a"));
+        assertNotNull(reopened.get("c"));
+        assertNotNull(reopened.get("d"));
+    }
+
+    @Test
+    public void reopenReplaysRemove() throws IOException {
+        DiskLruCache cache = DiskLruCache.open(mDir, 100);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[20]);
+        cache.remove("a");
+
+        DiskLruCache reopened = DiskLruCache.open(mDir, 100);
+        assertNull(reopened.get("a"));
+        assertNotNull(reopened.get("b"));
+        assertEquals(20, reopened.size());
+    }
+
+    @Test
+    public void tornLastLineKeepsReplayedEntries() throws IOException {
+        DiskLruCache cache = DiskLruCache.open(mDir, 100);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[12]);
+        //进程在写"REMOVE b\n"的过程中被杀死
+        appendJournal("REMOVE b");
+
+        DiskLruCache reopened = DiskLruCache.open(mDir, 100);
+        assertNotNull(reopened.get("a"));
+        assertNotNull(reopened.get("b"));
+        assertEquals(22, reopened.size());
+
+        //重写过的journal可以继续追加和回放
+        reopened.put("c", new byte[8]);
+        DiskLruCache again = DiskLruCache.open(mDir, 100);
+        assertEquals(30, again.size());
+        assertNotNull(again.get("c"));
+    }
+
+    @Test
+    public void tornLineThatParsesIsNotReplayed() throws IOException {
+        DiskLruCache cache = DiskLruCache.open(mDir, 100);
+        cache.put("a", new byte[10]);
+        //"CLEAN a 10"只写了一半，看起来是一条大小为1的记录
+        appendJournal("CLEAN a 1");
+
+        DiskLruCache reopened = DiskLruCache.open(mDir, 100);
+        assertEquals(10, reopened.size());
+    }
+
+    @Test
+    public void corruptCompleteLineDiscardsCache() throws IOException {
+        DiskLruCache cache = DiskLruCache.open(mDir, 100);
+        cache.put("a", new byte[10]);
+        appendJournal("CLEAN a x\n");
+
+        DiskLruCache reopened = DiskLruCache.open(mDir, 100);
+        assertNull(reopened.get("a"));
+        assertEquals(0, reopened.size());
+        assertFalse(new File(mDir, "a").exists());
+    }
+
+    @Test
+    public void untrackedFilesAreDeletedOnOpen() throws IOException {
+        DiskLruCache cache = DiskLruCache.open(mDir, 100);
+        cache.put("a", new byte[10]);
+        writeFile(new File(mDir, "b.tmp"), 5);
+        writeFile(new File(mDir, "orphan"), 5);
+
+        DiskLruCache reopened = DiskLruCache.open(mDir, 100);
+        assertNotNull(reopened.get("a"));
+        assertFalse(new File(mDir, "b.tmp").exists());
+        assertFalse(new File(mDir, "orphan").exists());
+    }
+
+    @Test
+    public void untrackedFilesAreDeletedWithoutJournal() throws IOException {
+        writeFile(new File(mDir, "orphan"), 5);
+
+        DiskLruCache cache = DiskLruCache.open(mDir, 100);
+        assertEquals(0, cache.size());
+        assertFalse(new File(mDir, "orphan").exists());
+        assertTrue(new File(mDir, "journal").exists());
+    }
+
+    private void appendJournal(String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(mDir, "journal"), true);
+        try {
+            out.write(text.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeFile(File file, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package imooc.com.imooc_imageloader.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SelectionSetTest {
+
+    @Test
+    public void randomSelectAndDeselectMatchesHashSet() {
+        SelectionSet selection = new SelectionSet();
+        Set<Long> expected = new HashSet<Long>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            //id范围小，同一簇中频繁删除，也会多次扩容
+            long id = 1 + random.nextInt(500);
+            boolean selected = random.nextInt(3) != 0;
+            selection.setSelected(id, selected);
+            if (selected) {
+                expected.add(id);
+            } else {
+                expected.remove(id);
+            }
+            if (i % 1000 == 0) {
+                assertSameSelection(expected, selection, 500);
+            }
+        }
+        assertSameSelection(expected, selection, 500);
+    }
+
+    @Test
+    public void removeFromCollidingClusterKeepsTheRestReachable() {
+        //在16个位置的表中，前4个id的位置都是0，后3个都是1，形成一个跨过自己位置的簇
+        long[] ids = new long[7];
+        int count = 0;
+        for (long id = 1; count < 4; id++) {
+            if (home(id, 16) == 0) {
+                ids[count++] = id;
+            }
+        }
+        for (long id = 1; count < 7; id++) {
+            if (home(id, 16) == 1) {
+                ids[count++] = id;
+            }
+        }
+        for (long removed : ids) {
+            SelectionSet selection = new SelectionSet();
+            selection.setSelected(ids, true);
+            selection.setSelected(removed, false);
+            for (long id : ids) {
+                assertEquals("removed " + removed + ", id " + id, id != removed, selection.isSelected(id));
+            }
+            assertEquals(ids.length - 1, selection.getSelectedCount(100));
+        }
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        SelectionSet selection = new SelectionSet();
+        for (long id = 1; id <= 1000; id++) {
+            selection.setSelected(id, true);
+        }
+        assertEquals(1000, selection.getSelectedCount(2000));
+        for (long id = 1; id <= 1000; id++) {
+            assertTrue(selection.isSelected(id));
+        }
+        assertFalse(selection.isSelected(1001));
+
+        selection.clear();
+        assertTrue(selection.isEmpty());
+        assertFalse(selection.isSelected(1));
+    }
+
+    @Test
+    public void selectAllThenDeselect() {
+        SelectionSet selection = new SelectionSet();
+        selection.setSelected(3, true);
+        selection.selectAll();
+        assertFalse(selection.isEmpty());
+        assertEquals(10, selection.getSelectedCount(10));
+        assertTrue(selection.isSelected(123));
+
+        selection.setSelected(4, false);
+        selection.setSelected(5, false);
+        assertFalse(selection.isSelected(4));
+        assertTrue(selection.isSelected(6));
+        assertEquals(8, selection.getSelectedCount(10));
+
+        selection.setSelected(4, true);
+        assertTrue(selection.isSelected(4));
+        assertEquals(9, selection.getSelectedCount(10));
+
+        //总数已经变少时不会返回负数
+        assertEquals(0, selection.getSelectedCount(0));
+    }
+
+    @Test
+    public void toggleFlipsInBothModes() {
+        SelectionSet selection = new SelectionSet();
+        assertTrue(selection.toggle(7));
+        assertTrue(selection.isSelected(7));
+        assertFalse(selection.toggle(7));
+        assertTrue(selection.isEmpty());
+
+        selection.selectAll();
+        assertFalse(selection.toggle(7));
+        assertFalse(selection.isSelected(7));
+        assertTrue(selection.toggle(7));
+        assertEquals(5, selection.getSelectedCount(5));
+    }
+
+    @Test
+    public void nonPositiveIdsAreIgnored() {
+        SelectionSet selection = new SelectionSet();
+        selection.setSelected(new long[]{0, -1, 2}, true);
+        assertEquals(1, selection.getSelectedCount(10));
+        assertFalse(selection.isSelected(0));
+        assertFalse(selection.isSelected(-1));
+
+        selection.selectAll();
+        assertFalse(selection.isSelected(0));
+    }
+
+    @Test
+    public void snapshotDoesNotChangeAfterwards() {
+        SelectionSet selection = new SelectionSet();
+        selection.setSelected(new long[]{1, 2, 3}, true);
+        SelectionSet.Snapshot snapshot = selection.snapshot();
+        selection.setSelected(2, false);
+        selection.setSelected(4, true);
+
+        assertFalse(snapshot.isInverted());
+        assertTrue(snapshot.isSelected(2));
+        assertFalse(snapshot.isSelected(4));
+        long[] ids = snapshot.getIds();
+        Arrays.sort(ids);
+        assertArrayEquals(new long[]{1, 2, 3}, ids);
+
+        selection.selectAll();
+        selection.setSelected(9, false);
+        SelectionSet.Snapshot inverted = selection.snapshot();
+        assertTrue(inverted.isInverted());
+        assertFalse(inverted.isSelected(9));
+        assertTrue(inverted.isSelected(1));
+        assertArrayEquals(new long[]{9}, inverted.getIds());
+    }
+
+    /**
+     * 和SelectionSet.hash相同
+     */
+    private static int home(long id, int capacity) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (capacity - 1);
+    }
+
+    private static void assertSameSelection(Set<Long> expected, SelectionSet selection, int maxId) {
+        assertEquals(expected.size(), selection.getSelectedCount(maxId));
+        for (long id = 1; id <= maxId; id++) {
+            assertEquals("id " + id, expected.contains(id), selection.isSelected(id));
+        }
+        assertEquals(expected.size(), selection.snapshot().getIds().length);
+    }
+}
@@ -0,0 +1,184 @@
+package imooc.com.imooc_imageloader.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TaskDispatcherTest {
+
+    private TaskDispatcher mDispatcher;
+    private final List<String> mOrder = Collections.synchronizedList(new ArrayList<String>());
+    /**
+     * 调度器的时钟，只在测试中推进，不依赖实际等待的时间
+     */
+    private final AtomicLong mClock = new AtomicLong();
+    private CountDownLatch mDone;
+
+    @After
+    public void tearDown() {
+        if (mDispatcher != null) {
+            mDispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void fifoRunsByPriorityThenSubmitOrder() throws InterruptedException {
+        //单个工作线程，暂停期间提交的任务恢复后按顺序执行
+        start(false, 7);
+        submit("background", TaskDispatcher.PRIORITY_BACKGROUND);
+        submit("prefetch", TaskDispatcher.PRIORITY_PREFETCH);
+        submit("near", TaskDispatcher.PRIORITY_NEAR_VISIBLE);
+        submit("visible1", TaskDispatcher.PRIORITY_VISIBLE);
+        submit("visible2", TaskDispatcher.PRIORITY_VISIBLE);
+        submitHighPriority("high");
+        submit("visible3", TaskDispatcher.PRIORITY_VISIBLE);
+        assertEquals(7, mDispatcher.getQueueSize());
+
+        //前三次按优先级取，第四次检查插队时没有等待足够久的任务
+        finish();
+        assertEquals(Arrays.asList("high", "visible1", "visible2", "visible3", "near", "prefetch", "background"),
+                mOrder);
+    }
+
+    @Test
+    public void lifoOnlyAppliesToVisibleAndNearVisible() throws InterruptedException {
+        start(true, 6);
+        submit("prefetch1", TaskDispatcher.PRIORITY_PREFETCH);
+        submit("prefetch2", TaskDispatcher.PRIORITY_PREFETCH);
+        submit("near1", TaskDispatcher.PRIORITY_NEAR_VISIBLE);
+        submit("near2", TaskDispatcher.PRIORITY_NEAR_VISIBLE);
+        submit("visible1", TaskDispatcher.PRIORITY_VISIBLE);
+        submit("visible2", TaskDispatcher.PRIORITY_VISIBLE);
+
+        finish();
+        assertEquals(Arrays.asList("visible2", "visible1", "near2", "near1", "prefetch1", "prefetch2"), mOrder);
+    }
+
+    @Test
+    public void agedTaskJumpsAheadOnEveryFourthTake() throws InterruptedException {
+        start(false, 7);
+        submit("near", TaskDispatcher.PRIORITY_NEAR_VISIBLE);
+        //NEAR_VISIBLE等待超过1 * AGING_INTERVAL之后可以插队
+        mClock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        for (int i = 1; i <= 6; i++) {
+            submit("visible" + i, TaskDispatcher.PRIORITY_VISIBLE);
+        }
+
+        finish();
+        assertEquals(Arrays.asList("visible1", "visible2", "visible3", "near", "visible4", "visible5", "visible6"),
+                mOrder);
+    }
+
+    @Test
+    public void reprioritizeMovesQueuedTask() throws InterruptedException {
+        start(false, 3);
+        submit("prefetch1", TaskDispatcher.PRIORITY_PREFETCH);
+        TaskDispatcher.Ticket ticket = submit("prefetch2", TaskDispatcher.PRIORITY_PREFETCH);
+        submit("near", TaskDispatcher.PRIORITY_NEAR_VISIBLE);
+
+        TaskDispatcher.Ticket moved = mDispatcher.reprioritize(ticket, TaskDispatcher.PRIORITY_VISIBLE);
+        assertEquals(TaskDispatcher.PRIORITY_VISIBLE, moved.getPriority());
+        //旧的Ticket已经失效
+        assertNull(mDispatcher.reprioritize(ticket, TaskDispatcher.PRIORITY_BACKGROUND));
+        assertSame(moved, mDispatcher.reprioritize(moved, TaskDispatcher.PRIORITY_VISIBLE));
+        assertEquals(3, mDispatcher.getQueueSize());
+
+        finish();
+        assertEquals(Arrays.asList("prefetch2", "near", "prefetch1"), mOrder);
+    }
+
+    @Test
+    public void reprioritizeAfterStartReturnsNull() throws InterruptedException {
+        start(false, 1);
+        TaskDispatcher.Ticket ticket = submit("visible", TaskDispatcher.PRIORITY_VISIBLE);
+        finish();
+
+        assertNull(mDispatcher.reprioritize(ticket, TaskDispatcher.PRIORITY_BACKGROUND));
+        assertNull(mDispatcher.reprioritize(ticket, TaskDispatcher.PRIORITY_VISIBLE));
+        assertEquals(0, mDispatcher.getQueueSize());
+    }
+
+    @Test
+    public void concurrentReprioritizeRunsEachTaskOnce() throws InterruptedException {
+        //多个工作线程取任务的同时不停地修改优先级，每个任务只执行一次，工作线程不会卡住
+        final int count = 2000;
+        final AtomicIntegerArray runs = new AtomicIntegerArray(count);
+        mDone = new CountDownLatch(count);
+        mDispatcher = new TaskDispatcher("TaskDispatcherTest", 4, true);
+        mDispatcher.pause();
+        TaskDispatcher.Ticket[] tickets = new TaskDispatcher.Ticket[count];
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            tickets[i] = mDispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet(index);
+                    mDone.countDown();
+                }
+            }, TaskDispatcher.PRIORITY_VISIBLE);
+        }
+        mDispatcher.resume();
+
+        Random random = new Random(42);
+        for (int round = 0; round < 20 && mDone.getCount() > 0; round++) {
+            for (int i = 0; i < count; i++) {
+                if (tickets[i] != null) {
+                    tickets[i] = mDispatcher.reprioritize(tickets[i], random.nextInt(4));
+                }
+            }
+        }
+        assertTrue(mDone.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            assertEquals("task " + i, 1, runs.get(i));
+        }
+        assertEquals(0, mDispatcher.getQueueSize());
+    }
+
+    private void start(boolean lifo, int taskCount) {
+        mDispatcher = new TaskDispatcher("TaskDispatcherTest", 1, lifo) {
+            @Override
+            long now() {
+                return mClock.get();
+            }
+        };
+        mDispatcher.pause();
+        mDone = new CountDownLatch(taskCount);
+    }
+
+    private TaskDispatcher.Ticket submit(String name, int priority) {
+        return mDispatcher.execute(record(name), priority);
+    }
+
+    private void submitHighPriority(String name) {
+        mDispatcher.executeHighPriority(record(name));
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mOrder.add(name);
+                mDone.countDown();
+            }
+        };
+    }
+
+    private void finish() throws InterruptedException {
+        mDispatcher.resume();
+        assertTrue(mDone.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,96 @@
+package android.graphics;
+
+/**
+ * 基准测试用的替身：只按照宽高和Config分配像素内存，不做真正的图像处理
+ */
+public final class Bitmap {
+
+    public enum Config {
+        ALPHA_8, RGB_565, ARGB_4444, ARGB_8888
+    }
+
+    private int mWidth;
+    private int mHeight;
+    private Config mConfig;
+    private final byte[] mPixels;
+    private boolean mRecycled;
+
+    private Bitmap(int width, int height, Config config) {
+        mWidth = width;
+        mHeight = height;
+        mConfig = config;
+        mPixels = new byte[width * height * bytesPerPixel(config)];
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        return new Bitmap(width, height, config);
+    }
+
+    /**
+     * 和真实的Bitmap一样，只要分配的内存足够就可以改变宽高
+     */
+    public void reconfigure(int width, int height, Config config) {
+        if (width * height * bytesPerPixel(config) > mPixels.length) {
+            throw new IllegalArgumentException("Bitmap not large enough to support new configuration");
+        }
+        mWidth = width;
+        mHeight = height;
+        mConfig = config;
+    }
+
+    /**
+     * 像素内存，替身解码器直接写入
+     */
+    public byte[] getPixels() {
+        return mPixels;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public Config getConfig() {
+        return mConfig;
+    }
+
+    public int getRowBytes() {
+        return mWidth * bytesPerPixel(mConfig);
+    }
+
+    public int getByteCount() {
+        return getRowBytes() * mHeight;
+    }
+
+    public int getAllocationByteCount() {
+        return mPixels.length;
+    }
+
+    public boolean isMutable() {
+        return true;
+    }
+
+    public boolean isRecycled() {
+        return mRecycled;
+    }
+
+    public void recycle() {
+        mRecycled = true;
+    }
+
+    public boolean hasAlpha() {
+        return mConfig != Config.RGB_565;
+    }
+
+    private static int bytesPerPixel(Config config) {
+        if (config == Config.RGB_565 || config == Config.ARGB_4444) {
+            return 2;
+        } else if (config == Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
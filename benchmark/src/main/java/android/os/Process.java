@@ -0,0 +1,11 @@
+package android.os;
+
+/**
+ * 基准测试用的替身，线程优先级在普通JVM上不做处理
+ */
+public class Process {
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+    public static void setThreadPriority(int priority) {
+    }
+}
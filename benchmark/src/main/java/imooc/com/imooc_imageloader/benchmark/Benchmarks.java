@@ -0,0 +1,38 @@
+package imooc.com.imooc_imageloader.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 基准测试入口
+ * 参数：CSV结果文件的路径（可选），之后的参数为要运行的基准测试名（dispatcher、cache、sampleSize、fileRead、endToEnd），不指定时全部运行
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        Results results = new Results();
+        String only = args.length > 1 ? args[1] : null;
+
+        if (only == null || only.equals("dispatcher")) {
+            DispatcherBenchmark.run(results);
+        }
+        if (only == null || only.equals("cache")) {
+            CacheBenchmark.run(results);
+        }
+        if (only == null || only.equals("sampleSize")) {
+            SampleSizeBenchmark.run(results);
+        }
+        if (only == null || only.equals("fileRead")) {
+            FileReadBenchmark.run(results);
+        }
+        if (only == null || only.equals("endToEnd")) {
+            EndToEndBenchmark.run(results);
+        }
+
+        if (args.length > 0) {
+            File out = new File(args[0]);
+            results.writeCsv(out);
+            System.out.println("results written to " + out.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package imooc.com.imooc_imageloader.benchmark;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 内存缓存基准测试：多线程同时get/put时LruCache的吞吐量
+ * 缓存按照ImageLoader的方式配置：按Bitmap的字节数计算大小，key为path@宽x高
+ */
+public class CacheBenchmark {
+
+    private static final int KEY_COUNT = 4000;
+    private static final int OPS_PER_THREAD = 200000;
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    /**
+     * 90%为get，10%为put
+     */
+    private static final int PUT_PERCENT = 10;
+
+    public static void run(Results results) throws InterruptedException {
+        final String[] keys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = "/sdcard/DCIM/Camera/IMG_" + i + ".jpg@384x320";
+        }
+        final Bitmap[] values = new Bitmap[64];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Bitmap.createBitmap(96, 80, Bitmap.Config.ARGB_8888);
+        }
+        //缓存能放下大约一半的key
+        int maxSize = values[0].getAllocationByteCount() * KEY_COUNT / 2;
+
+        for (int round = 0; round < 2; round++) {
+            for (int threads : THREADS) {
+                final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(maxSize) {
+                    @Override
+                    protected int sizeOf(String key, Bitmap value) {
+                        return value.getAllocationByteCount();
+                    }
+                };
+                final CountDownLatch start = new CountDownLatch(1);
+                final CountDownLatch done = new CountDownLatch(threads);
+                for (int t = 0; t < threads; t++) {
+                    final long seed = t;
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            Random random = new Random(seed);
+                            try {
+                                start.await();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                            long hits = 0;
+                            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                                String key = keys[random.nextInt(KEY_COUNT)];
+                                if (random.nextInt(100) < PUT_PERCENT) {
+                                    cache.put(key, values[i & (values.length - 1)]);
+                                } else if (cache.get(key) != null) {
+                                    hits++;
+                                }
+                            }
+                            Work.consume(hits);
+                            done.countDown();
+                        }
+                    }.start();
+                }
+                long begin = System.nanoTime();
+                start.countDown();
+                done.await();
+                long elapsed = System.nanoTime() - begin;
+                if (round > 0) {
+                    results.record("cache.lru", "getPut.threads" + threads,
+                            (double) threads * OPS_PER_THREAD * 1e9 / elapsed, "ops/s");
+                }
+            }
+        }
+    }
+}
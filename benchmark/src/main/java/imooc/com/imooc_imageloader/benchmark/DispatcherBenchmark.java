@@ -0,0 +1,164 @@
+package imooc.com.imooc_imageloader.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+
+import imooc.com.imooc_imageloader.util.TaskDispatcher;
+
+/**
+ * 调度器基准测试：TaskDispatcher和原来的轮询线程+信号量方式对比
+ * 1. 1,000个loadImage任务突发提交时，提交调用的耗时和从提交到开始执行的延迟
+ * 2. 大量空任务的吞吐量
+ * 3. 一屏可见任务之后又提交了不同数量的预加载任务时，可见任务从提交到全部完成的时间，同一优先级时作为对比
+ */
+public class DispatcherBenchmark {
+
+    private static final int THREAD_COUNT = 3;
+    private static final int BURST = 1000;
+    private static final long TASK_WORK_NANOS = 20 * 1000;
+    private static final int THROUGHPUT_TASKS = 200000;
+    private static final int VISIBLE_TASKS = 24;
+    private static final int[] PENDING_PREFETCH = {0, 200, 2000};
+
+    /**
+     * 统一两种调度器的接口
+     */
+    interface Dispatcher {
+        void execute(Runnable task);
+
+        void shutdown() throws InterruptedException;
+    }
+
+    public static void run(Results results) throws InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            //第一轮为预热，不记录
+            Results target = i == 0 ? null : results;
+            burst(target, "dispatcher.new", newDispatcher());
+            burst(target, "dispatcher.legacy", legacyDispatcher());
+            throughput(target, "dispatcher.new", newDispatcher());
+            throughput(target, "dispatcher.legacy", legacyDispatcher());
+            for (int pending : PENDING_PREFETCH) {
+                visibleLatency(target, "dispatcher.priority", pending, TaskDispatcher.PRIORITY_PREFETCH);
+                visibleLatency(target, "dispatcher.samePriority", pending, TaskDispatcher.PRIORITY_VISIBLE);
+            }
+        }
+    }
+
+    private static Dispatcher newDispatcher() {
+        final TaskDispatcher dispatcher = new TaskDispatcher(THREAD_COUNT, true);
+        return new Dispatcher() {
+            @Override
+            public void execute(Runnable task) {
+                dispatcher.execute(task);
+            }
+
+            @Override
+            public void shutdown() {
+                dispatcher.shutdown();
+            }
+        };
+    }
+
+    private static Dispatcher legacyDispatcher() {
+        final LegacyDispatcher dispatcher = new LegacyDispatcher(THREAD_COUNT, true);
+        return new Dispatcher() {
+            @Override
+            public void execute(Runnable task) {
+                dispatcher.execute(task);
+            }
+
+            @Override
+            public void shutdown() throws InterruptedException {
+                dispatcher.shutdown();
+            }
+        };
+    }
+
+    private static void burst(Results results, String name, Dispatcher dispatcher) throws InterruptedException {
+        final long[] enqueueAt = new long[BURST];
+        final long[] startLatency = new long[BURST];
+        long[] callCost = new long[BURST];
+        final CountDownLatch done = new CountDownLatch(BURST);
+
+        for (int i = 0; i < BURST; i++) {
+            final int index = i;
+            long before = System.nanoTime();
+            enqueueAt[index] = before;
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    startLatency[index] = System.nanoTime() - enqueueAt[index];
+                    Work.spin(TASK_WORK_NANOS);
+                    done.countDown();
+                }
+            });
+            callCost[i] = System.nanoTime() - before;
+        }
+        done.await();
+        dispatcher.shutdown();
+
+        if (results != null) {
+            results.recordLatency(name, "burst1000.enqueueCall", callCost);
+            results.recordLatency(name, "burst1000.enqueueToStart", startLatency);
+        }
+    }
+
+    /**
+     * 先提交一屏可见的任务，紧接着提交pending个预加载任务（滑动停止后的预加载就是这样），
+     * 记录可见任务全部完成的时间
+     * @param prefetchPriority 预加载任务的优先级，为PRIORITY_VISIBLE时相当于没有优先级
+     */
+    private static void visibleLatency(Results results, String name, int pending, int prefetchPriority)
+            throws InterruptedException {
+        TaskDispatcher dispatcher = new TaskDispatcher(THREAD_COUNT, true);
+        final CountDownLatch visible = new CountDownLatch(VISIBLE_TASKS);
+        final CountDownLatch prefetched = new CountDownLatch(pending);
+        long start = System.nanoTime();
+        for (int i = 0; i < VISIBLE_TASKS; i++) {
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Work.spin(TASK_WORK_NANOS);
+                    visible.countDown();
+                }
+            }, TaskDispatcher.PRIORITY_VISIBLE);
+        }
+        for (int i = 0; i < pending; i++) {
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Work.spin(TASK_WORK_NANOS);
+                    prefetched.countDown();
+                }
+            }, prefetchPriority);
+        }
+        visible.await();
+        long elapsed = System.nanoTime() - start;
+        prefetched.await();
+        dispatcher.shutdown();
+
+        if (results != null) {
+            results.record(name, "visibleScreen.pending" + pending, elapsed / 1e6, "ms");
+        }
+    }
+
+    private static void throughput(Results results, String name, Dispatcher dispatcher) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(THROUGHPUT_TASKS);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        long start = System.nanoTime();
+        for (int i = 0; i < THROUGHPUT_TASKS; i++) {
+            dispatcher.execute(task);
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        dispatcher.shutdown();
+
+        if (results != null) {
+            results.record(name, "throughput", THROUGHPUT_TASKS * 1e9 / elapsed, "tasks/s");
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package imooc.com.imooc_imageloader.benchmark;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.concurrent.CountDownLatch;
+
+import imooc.com.imooc_imageloader.util.BitmapPool;
+import imooc.com.imooc_imageloader.util.DecodeUtils;
+import imooc.com.imooc_imageloader.util.TaskDispatcher;
+
+/**
+ * 端到端基准测试：模拟的文件夹中1,000个格子一次性请求，按ImageLoader的流程
+ * 内存缓存 -> 计算inSampleSize -> 解码（复用池中的Bitmap）-> 放入缓存 -> 分发，
+ * 记录每个格子从请求到拿到图片的延迟。第二轮模拟滑回去再看一遍
+ */
+public class EndToEndBenchmark {
+
+    private static final int TILES = 1000;
+    private static final int THREAD_COUNT = 3;
+    private static final int REQ_WIDTH = 384;
+    private static final int REQ_HEIGHT = 320;
+
+    public static void run(Results results) throws InterruptedException {
+        SyntheticFolder folder = new SyntheticFolder(TILES, 7);
+        //预热
+        runPasses(null, folder);
+        runPasses(results, folder);
+    }
+
+    private static void runPasses(Results results, SyntheticFolder folder) throws InterruptedException {
+        int maxMemory = (int) Math.min(Runtime.getRuntime().maxMemory(), Integer.MAX_VALUE);
+        final BitmapPool pool = new BitmapPool(maxMemory / 16);
+        LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(maxMemory / 8) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                pool.put(oldValue);
+            }
+        };
+        TaskDispatcher dispatcher = new TaskDispatcher(THREAD_COUNT, true);
+        try {
+            String[] names = {"cold", "scrollBack"};
+            for (String name : names) {
+                long start = System.nanoTime();
+                long[] latency = loadAll(dispatcher, cache, pool, folder);
+                long elapsed = System.nanoTime() - start;
+                if (results != null) {
+                    results.recordLatency("endToEnd.tiles1000", name + ".latency", latency);
+                    results.record("endToEnd.tiles1000", name + ".total", elapsed / 1e6, "ms");
+                }
+            }
+            if (results != null) {
+                results.record("endToEnd.tiles1000", "cache.hitCount", cache.hitCount(), "count");
+                results.record("endToEnd.tiles1000", "pool.hitCount", pool.getHitCount(), "count");
+                results.record("endToEnd.tiles1000", "pool.missCount", pool.getMissCount(), "count");
+            }
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    private static long[] loadAll(TaskDispatcher dispatcher, final LruCache<String, Bitmap> cache,
+                                  final BitmapPool pool, SyntheticFolder folder) throws InterruptedException {
+        final long[] latency = new long[TILES];
+        final CountDownLatch done = new CountDownLatch(TILES);
+        for (int i = 0; i < TILES; i++) {
+            final int index = i;
+            final String key = folder.paths[i] + "@" + REQ_WIDTH + "x" + REQ_HEIGHT;
+            final int[] size = folder.sizes[i];
+            final long requestAt = System.nanoTime();
+            if (cache.get(key) != null) {
+                //缓存命中在调用线程中直接完成
+                latency[index] = System.nanoTime() - requestAt;
+                done.countDown();
+                continue;
+            }
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int inSampleSize = DecodeUtils.caculateInSampleSize(size[0], size[1], REQ_WIDTH, REQ_HEIGHT);
+                    Bitmap bitmap = SyntheticDecoder.decode(size[0], size[1], inSampleSize, pool);
+                    cache.put(key, bitmap);
+                    latency[index] = System.nanoTime() - requestAt;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return latency;
+    }
+}
@@ -0,0 +1,153 @@
+package imooc.com.imooc_imageloader.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import imooc.com.imooc_imageloader.util.RewindableFileStream;
+
+/**
+ * 读取图片文件的基准测试：模拟解码边界和完整解码两遍读取
+ * legacy：和两次BitmapFactory.decodeFile一样，打开两次文件，文件头读两遍，每次解码分配新的临时缓冲区
+ * rewindable：RewindableFileStream只打开一次，文件头只读一遍，缓冲区按线程复用
+ * 测试文件在系统临时目录中，页缓存是热的，结果只反映系统调用和内存拷贝的差别，慢速SD卡上差别更大
+ */
+public class FileReadBenchmark {
+
+    private static final int FILES = 32;
+    private static final int FILE_SIZE = 3 * 1024 * 1024;
+    /**
+     * 解码边界读取的文件头大小，相机照片的EXIF一般在64K以内
+     */
+    private static final int HEADER_SIZE = 64 * 1024;
+    private static final int ROUNDS = 5;
+
+    public static void run(Results results) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "imageloader-bench");
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("can not create " + dir);
+        }
+        String[] paths = createFiles(dir);
+        try {
+            long[] counters = new long[2];
+            for (int round = 0; round <= ROUNDS; round++) {
+                boolean warmup = round == 0;
+                counters[0] = counters[1] = 0;
+                long start = System.nanoTime();
+                long sum = 0;
+                for (String path : paths) {
+                    sum += readLegacy(path, counters);
+                }
+                long legacy = System.nanoTime() - start;
+                if (!warmup && round == ROUNDS) {
+                    record(results, "legacy", legacy, counters);
+                }
+
+                counters[0] = counters[1] = 0;
+                start = System.nanoTime();
+                for (String path : paths) {
+                    sum += readRewindable(path, counters);
+                }
+                long rewindable = System.nanoTime() - start;
+                if (!warmup && round == ROUNDS) {
+                    record(results, "rewindable", rewindable, counters);
+                }
+                Work.consume(sum);
+            }
+        } finally {
+            for (String path : paths) {
+                new File(path).delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void record(Results results, String name, long elapsed, long[] counters) {
+        results.record("fileRead." + name, "images", (double) FILES * 1e9 / elapsed, "images/s");
+        results.record("fileRead." + name, "opensPerImage", (double) counters[0] / FILES, "opens");
+        results.record("fileRead." + name, "readCallsPerImage", (double) counters[1] / FILES, "calls");
+    }
+
+    private static String[] createFiles(File dir) throws IOException {
+        Random random = new Random(42);
+        byte[] data = new byte[FILE_SIZE];
+        String[] paths = new String[FILES];
+        for (int i = 0; i < FILES; i++) {
+            random.nextBytes(data);
+            File file = new File(dir, "IMG_" + i + ".jpg");
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            paths[i] = file.getAbsolutePath();
+        }
+        return paths;
+    }
+
+    /**
+     * 两次decodeFile：每次打开文件，分配16K的临时缓冲区
+     */
+    private static long readLegacy(String path, long[] counters) throws IOException {
+        long sum = 0;
+        InputStream in = new FileInputStream(path);
+        counters[0]++;
+        try {
+            sum += consume(in, new byte[RewindableFileStream.TEMP_STORAGE_SIZE], HEADER_SIZE, counters);
+        } finally {
+            in.close();
+        }
+        in = new FileInputStream(path);
+        counters[0]++;
+        try {
+            sum += consume(in, new byte[RewindableFileStream.TEMP_STORAGE_SIZE], Integer.MAX_VALUE, counters);
+        } finally {
+            in.close();
+        }
+        return sum;
+    }
+
+    private static long readRewindable(String path, long[] counters) throws IOException {
+        long sum = 0;
+        RewindableFileStream in = new RewindableFileStream(path);
+        counters[0]++;
+        try {
+            byte[] storage = RewindableFileStream.getTempStorage();
+            sum += consume(in, storage, HEADER_SIZE, counters);
+            if (!in.rewind()) {
+                throw new IOException("header does not fit in the buffer");
+            }
+            //rewind之后前HEADER_SIZE字节来自缓冲区，不计入系统调用
+            long[] fromFile = new long[2];
+            sum += consume(in, storage, Integer.MAX_VALUE, fromFile);
+            counters[1] += Math.max(fromFile[1] - HEADER_SIZE / storage.length, 0);
+        } finally {
+            in.close();
+        }
+        return sum;
+    }
+
+    /**
+     * 像解码器一样按块读取
+     * @param limit 最多读取的字节数
+     * @return 读到的数据的校验和，防止被优化掉
+     */
+    private static long consume(InputStream in, byte[] buffer, int limit, long[] counters) throws IOException {
+        long sum = 0;
+        int total = 0;
+        while (total < limit) {
+            int n = in.read(buffer, 0, Math.min(buffer.length, limit - total));
+            counters[1]++;
+            if (n < 0) {
+                break;
+            }
+            total += n;
+            sum += buffer[0];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,71 @@
+package imooc.com.imooc_imageloader.benchmark;
+
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 原来ImageLoader的调度方式，作为对比：
+ * synchronized的addTask把任务放进LinkedList，再给后台轮询线程发消息（这里用阻塞队列代替Looper），
+ * 轮询线程把任务交给线程池，然后阻塞在信号量上直到有空闲的线程
+ */
+public class LegacyDispatcher {
+
+    private static final Object MESSAGE = new Object();
+
+    private final LinkedList<Runnable> mTaskQueue = new LinkedList<Runnable>();
+    private final LinkedBlockingQueue<Object> mMessages = new LinkedBlockingQueue<Object>();
+    private final ExecutorService mThreadPool;
+    private final Semaphore mSemaphoreThreadPool;
+    private final boolean mLifo;
+    private final Thread mPoolThread;
+
+    public LegacyDispatcher(int threadCount, boolean lifo) {
+        mLifo = lifo;
+        mThreadPool = Executors.newFixedThreadPool(threadCount);
+        mSemaphoreThreadPool = new Semaphore(threadCount);
+        mPoolThread = new Thread("legacy-poll") {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        mMessages.take();
+                        final Runnable task = getTask();
+                        mThreadPool.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    task.run();
+                                } finally {
+                                    mSemaphoreThreadPool.release();
+                                }
+                            }
+                        });
+                        mSemaphoreThreadPool.acquire();
+                    }
+                } catch (InterruptedException e) {
+                    //退出
+                }
+            }
+        };
+        mPoolThread.start();
+    }
+
+    private synchronized Runnable getTask() {
+        return mLifo ? mTaskQueue.removeLast() : mTaskQueue.removeFirst();
+    }
+
+    public synchronized void execute(Runnable task) {
+        mTaskQueue.add(task);
+        mMessages.add(MESSAGE);
+    }
+
+    public void shutdown() throws InterruptedException {
+        mPoolThread.interrupt();
+        mThreadPool.shutdown();
+        mThreadPool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,52 @@
+package imooc.com.imooc_imageloader.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 基准测试结果，打印成表格，并写成CSV（benchmark,metric,value,unit）方便在不同提交之间对比
+ */
+public class Results {
+
+    private final List<String[]> mRows = new ArrayList<String[]>();
+
+    public void record(String benchmark, String metric, double value, String unit) {
+        mRows.add(new String[]{benchmark, metric, String.format(Locale.US, "%.3f", value), unit});
+        System.out.println(String.format(Locale.US, "%-28s %-36s %16.3f %s", benchmark, metric, value, unit));
+    }
+
+    /**
+     * 记录一组延迟的分位数
+     * @param benchmark
+     * @param metric
+     * @param nanos 每次的耗时，单位纳秒
+     */
+    public void recordLatency(String benchmark, String metric, long[] nanos) {
+        Stats stats = new Stats(nanos);
+        record(benchmark, metric + ".p50", stats.percentile(50) / 1000.0, "us");
+        record(benchmark, metric + ".p90", stats.percentile(90) / 1000.0, "us");
+        record(benchmark, metric + ".p99", stats.percentile(99) / 1000.0, "us");
+        record(benchmark, metric + ".max", stats.percentile(100) / 1000.0, "us");
+    }
+
+    public void writeCsv(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("can not create " + parent);
+        }
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write("benchmark,metric,value,unit\n");
+            for (String[] row : mRows) {
+                writer.write(row[0] + "," + row[1] + "," + row[2] + "," + row[3] + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package imooc.com.imooc_imageloader.benchmark;
+
+import java.util.Random;
+
+import imooc.com.imooc_imageloader.util.DecodeUtils;
+
+/**
+ * inSampleSize计算的基准测试，同时记录解码后相对需求大小的平均像素倍数，用来比较不同计算方式的效果
+ * scaledPixelsPerRequested是2的幂采样之后再在解码时缩放到需求大小的结果
+ */
+public class SampleSizeBenchmark {
+
+    private static final int SIZES = 4096;
+    private static final int ITERATIONS = 2000;
+
+    public static void run(Results results) {
+        Random random = new Random(42);
+        int[][] sizes = new int[SIZES][];
+        for (int i = 0; i < SIZES; i++) {
+            sizes[i] = SyntheticFolder.randomImageSize(random);
+        }
+        int reqWidth = 384;
+        int reqHeight = 320;
+
+        long sum = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int n = 0; n < ITERATIONS; n++) {
+                for (int[] size : sizes) {
+                    sum += DecodeUtils.caculateInSampleSize(size[0], size[1], reqWidth, reqHeight);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round > 0) {
+                results.record("sampleSize", "caculate", (double) ITERATIONS * SIZES * 1e9 / elapsed, "ops/s");
+            }
+        }
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int n = 0; n < ITERATIONS; n++) {
+                for (int[] size : sizes) {
+                    sum += DecodeUtils.calculatePowerOfTwoSampleSize(size[0], size[1], reqWidth, reqHeight, true);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round > 0) {
+                results.record("sampleSize", "powerOfTwo", (double) ITERATIONS * SIZES * 1e9 / elapsed, "ops/s");
+            }
+        }
+        Work.consume(sum);
+
+        //解码器只支持2的幂，按向下取整后的2的幂计算实际解码出的像素数
+        double ratio = 0;
+        double sampledRatio = 0;
+        double scaledRatio = 0;
+        for (int[] size : sizes) {
+            int sample = Integer.highestOneBit(DecodeUtils.caculateInSampleSize(size[0], size[1], reqWidth, reqHeight));
+            double decoded = (double) (size[0] / sample) * (size[1] / sample);
+            ratio += decoded / (reqWidth * reqHeight);
+
+            //2的幂采样之后再在解码时缩放到正好覆盖需求的大小
+            sample = DecodeUtils.calculatePowerOfTwoSampleSize(size[0], size[1], reqWidth, reqHeight, true);
+            decoded = (double) (size[0] / sample) * (size[1] / sample);
+            sampledRatio += decoded / (reqWidth * reqHeight);
+            float scale = DecodeUtils.getTargetScale(size[0], size[1], reqWidth, reqHeight, true);
+            scaledRatio += Math.min(scale, 1) * size[0] * Math.min(scale, 1) * size[1] / (reqWidth * reqHeight);
+        }
+        results.record("sampleSize", "decodedPixelsPerRequested", ratio / SIZES, "x");
+        results.record("sampleSize", "powerOfTwoSampledPixelsPerRequested", sampledRatio / SIZES, "x");
+        results.record("sampleSize", "scaledPixelsPerRequested", scaledRatio / SIZES, "x");
+    }
+}
@@ -0,0 +1,28 @@
+package imooc.com.imooc_imageloader.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * 延迟分位数
+ */
+public class Stats {
+
+    private final long[] mSorted;
+
+    public Stats(long[] samples) {
+        mSorted = Arrays.copyOf(samples, samples.length);
+        Arrays.sort(mSorted);
+    }
+
+    /**
+     * @param percentile 0-100
+     * @return
+     */
+    public long percentile(double percentile) {
+        if (mSorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * mSorted.length) - 1;
+        return mSorted[Math.min(Math.max(index, 0), mSorted.length - 1)];
+    }
+}
@@ -0,0 +1,51 @@
+package imooc.com.imooc_imageloader.benchmark;
+
+import android.graphics.Bitmap;
+
+import imooc.com.imooc_imageloader.util.BitmapPool;
+
+/**
+ * 模拟的解码器，代替BitmapFactory：
+ * 读取和熵解码的开销与压缩后的字节数成正比（按每像素1bit估算），输出的开销与解码出的像素数成正比
+ */
+public class SyntheticDecoder {
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private SyntheticDecoder() {
+    }
+
+    /**
+     * @param width 原图宽
+     * @param height 原图高
+     * @param inSampleSize
+     * @param pool 为null时不复用
+     * @return
+     */
+    public static Bitmap decode(int width, int height, int inSampleSize, BitmapPool pool) {
+        //和JPEG解码器一样，只支持2的幂
+        int sample = Integer.highestOneBit(Math.max(inSampleSize, 1));
+        int outWidth = (width + sample - 1) / sample;
+        int outHeight = (height + sample - 1) / sample;
+
+        long compressedBytes = (long) width * height / 8;
+        long hash = 0;
+        for (long i = 0; i < compressedBytes; i++) {
+            hash = hash * 31 + i;
+        }
+        Work.consume(hash);
+
+        Bitmap bitmap = pool != null ? pool.get(outWidth, outHeight, Bitmap.Config.ARGB_8888) : null;
+        if (bitmap != null) {
+            bitmap.reconfigure(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+        } else {
+            bitmap = Bitmap.createBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+        }
+        byte[] pixels = bitmap.getPixels();
+        int length = outWidth * outHeight * BYTES_PER_PIXEL;
+        for (int i = 0; i < length; i++) {
+            pixels[i] = (byte) hash;
+        }
+        return bitmap;
+    }
+}
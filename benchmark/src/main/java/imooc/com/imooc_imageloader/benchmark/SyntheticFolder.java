@@ -0,0 +1,33 @@
+package imooc.com.imooc_imageloader.benchmark;
+
+import java.util.Random;
+
+/**
+ * 模拟的图片文件夹：相机照片、截图等常见尺寸的混合
+ */
+public class SyntheticFolder {
+
+    private static final int[][] SIZES = {
+            {4000, 3000}, {4000, 3000}, {4000, 3000}, {4000, 3000}, {4000, 3000},
+            {3264, 2448}, {3264, 2448},
+            {1080, 2340}, {1080, 2340},
+            {1920, 1080}};
+
+    public final String[] paths;
+    public final int[][] sizes;
+
+    public SyntheticFolder(int count, long seed) {
+        Random random = new Random(seed);
+        paths = new String[count];
+        sizes = new int[count][];
+        for (int i = 0; i < count; i++) {
+            paths[i] = "/sdcard/DCIM/Camera/IMG_" + i + ".jpg";
+            sizes[i] = randomImageSize(random);
+        }
+    }
+
+    public static int[] randomImageSize(Random random) {
+        int[] size = SIZES[random.nextInt(SIZES.length)];
+        return new int[]{size[0], size[1]};
+    }
+}
@@ -0,0 +1,33 @@
+package imooc.com.imooc_imageloader.benchmark;
+
+/**
+ * 模拟占用CPU的工作
+ */
+public class Work {
+
+    private static volatile long sSink;
+
+    private Work() {
+    }
+
+    /**
+     * 忙等待指定的时间
+     * @param nanos
+     */
+    public static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        long x = 0;
+        while (System.nanoTime() < end) {
+            x++;
+        }
+        sSink += x;
+    }
+
+    /**
+     * 防止计算结果被JIT优化掉
+     * @param value
+     */
+    public static void consume(long value) {
+        sSink += value;
+    }
+}